@@ -0,0 +1,178 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * TickTockDBRecordMix generates the data points the benchmarks feed the
+ * connectors: a few metrics over a fleet of hosts, with 2 to 5 tags and 1 to
+ * 4 fields each, so that series repeat the way they do in production, and
+ * lines vary in length.
+ *
+ * The sink record mixes are:
+ *
+ *   lines   - line protocol Strings
+ *   bytes   - line protocol byte[], as with the ByteArrayConverter
+ *   structs - Structs with a schema, as with the JsonConverter or Avro
+ *   maps    - schemaless Maps
+ *   mixed   - all of the above, in equal parts
+ */
+final class TickTockDBRecordMix {
+    static final String TOPIC = "metrics";
+
+    private static final String[] METRICS = { "cpu", "mem", "disk", "net", "system.load" };
+    private static final String[] TAG_KEYS = { "host", "dc", "rack", "service", "env" };
+    private static final String[] FIELDS = { "usage", "idle", "iowait", "steal" };
+    private static final long START = 1700000000L;
+
+    private static final Schema TAGS = SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.STRING_SCHEMA).build();
+    private static final Schema FIELD_VALUES = SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.FLOAT64_SCHEMA).build();
+    static final Schema POINT = SchemaBuilder.struct()
+        .field("metric", Schema.STRING_SCHEMA)
+        .field("tags", TAGS)
+        .field("fields", FIELD_VALUES)
+        .field("timestamp", Schema.INT64_SCHEMA)
+        .build();
+
+    private final Random random;
+    private final int hosts;
+
+    /**
+     * @param hosts number of distinct hosts; series = hosts * metrics
+     */
+    TickTockDBRecordMix(long seed, int hosts) {
+        this.random = new Random(seed);
+        this.hosts = hosts;
+    }
+
+    /**
+     * One data point, as its metric, tags, fields and timestamp.
+     */
+    private static class Point {
+        String metric;
+        Map<String, String> tags = new LinkedHashMap<>();
+        Map<String, Double> fields = new LinkedHashMap<>();
+        long timestamp;
+    }
+
+    private Point point(int i) {
+        Point p = new Point();
+        int host = random.nextInt(hosts);
+        p.metric = METRICS[random.nextInt(METRICS.length)];
+        int tags = 2 + (host % 4);
+        for (int t = 0; t < tags; t++)
+            p.tags.put(TAG_KEYS[t], (t == 0) ? "host" + host : TAG_KEYS[t] + (host % (t + 2)));
+        int fields = 1 + random.nextInt(FIELDS.length);
+        for (int f = 0; f < fields; f++)
+            p.fields.put(FIELDS[f], Math.round(random.nextDouble() * 10000) / 100.0);
+        p.timestamp = START + i;
+        return p;
+    }
+
+    private static String line(Point p) {
+        StringBuilder sb = new StringBuilder(128).append(p.metric);
+        for (Map.Entry<String, String> tag : p.tags.entrySet())
+            sb.append(',').append(tag.getKey()).append('=').append(tag.getValue());
+        char sep = ' ';
+        for (Map.Entry<String, Double> field : p.fields.entrySet()) {
+            sb.append(sep).append(field.getKey()).append('=').append(field.getValue());
+            sep = ',';
+        }
+        return sb.append(' ').append(p.timestamp).toString();
+    }
+
+    /**
+     * @return count line protocol lines
+     */
+    List<String> lines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            lines.add(line(point(i)));
+        return lines;
+    }
+
+    /**
+     * @return count OpenTSDB put lines, one per data point and field
+     */
+    List<String> putLines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; lines.size() < count; i++) {
+            Point p = point(i);
+            for (Map.Entry<String, Double> field : p.fields.entrySet()) {
+                StringBuilder sb = new StringBuilder(128).append("put ").append(p.metric).append('.').append(field.getKey())
+                    .append(' ').append(p.timestamp).append(' ').append(field.getValue());
+                for (Map.Entry<String, String> tag : p.tags.entrySet())
+                    sb.append(' ').append(tag.getKey()).append('=').append(tag.getValue());
+                lines.add(sb.toString());
+            }
+        }
+        return lines.subList(0, count);
+    }
+
+    /**
+     * @param mix one of lines, bytes, structs, maps or mixed
+     * @return count sink records of a single partition, at offsets 0 to count-1
+     */
+    List<SinkRecord> records(String mix, int count) {
+        List<SinkRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Point p = point(i);
+            String kind = "mixed".equals(mix) ? new String[] { "lines", "bytes", "structs", "maps" }[i % 4] : mix;
+            switch (kind) {
+                case "lines":
+                    records.add(new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, line(p), i));
+                    break;
+                case "bytes":
+                    records.add(new SinkRecord(TOPIC, 0, null, null, Schema.BYTES_SCHEMA,
+                        line(p).getBytes(StandardCharsets.UTF_8), i));
+                    break;
+                case "structs":
+                    Struct struct = new Struct(POINT)
+                        .put("metric", p.metric)
+                        .put("tags", p.tags)
+                        .put("fields", p.fields)
+                        .put("timestamp", p.timestamp);
+                    records.add(new SinkRecord(TOPIC, 0, null, null, POINT, struct, i));
+                    break;
+                case "maps":
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("metric", p.metric);
+                    map.put("tags", p.tags);
+                    map.put("fields", p.fields);
+                    map.put("timestamp", p.timestamp);
+                    records.add(new SinkRecord(TOPIC, 0, null, null, null, map, i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown record mix " + mix);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sink's per-record CPU work, without any I/O: encoding Structs and
+ * Maps into line protocol, validating and hashing lines, and appending them
+ * to pooled batch buffers. One operation is one record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TickTockDBSinkEncodeBenchmark {
+    private static final int RECORDS = 1000;
+
+    private List<SinkRecord> structs;
+    private List<SinkRecord> maps;
+    private byte[][] lines;
+    private TickTockDBStructEncoder encoder;
+    private TickTockDBLineProtocol protocol;
+    private TickTockDBArena arena;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        structs = new TickTockDBRecordMix(42, 1000).records("structs", RECORDS);
+        maps = new TickTockDBRecordMix(42, 1000).records("maps", RECORDS);
+        List<String> text = new TickTockDBRecordMix(42, 1000).lines(RECORDS);
+        lines = new byte[RECORDS][];
+        for (int i = 0; i < RECORDS; i++)
+            lines[i] = text.get(i).getBytes(StandardCharsets.UTF_8);
+
+        encoder = new TickTockDBStructEncoder(new AbstractConfig(TickTockDBSinkConnector.CONFIG_DEF, Collections.emptyMap()));
+        protocol = new TickTockDBLineProtocol();
+        arena = new TickTockDBArena(TickTockDBSinkConnector.DEFAULT_BUFFER_POOL_BYTES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void encodeStructs(Blackhole blackhole) {
+        for (SinkRecord record : structs) {
+            blackhole.consume(encoder.encode(record.value()));
+            blackhole.consume(encoder.length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void encodeMaps(Blackhole blackhole) {
+        for (SinkRecord record : maps) {
+            blackhole.consume(encoder.encode(record.value()));
+            blackhole.consume(encoder.length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void scanLines(Blackhole blackhole) {
+        for (byte[] line : lines) {
+            blackhole.consume(protocol.scan(line, 0, line.length));
+            blackhole.consume(protocol.pointHash());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void batchLines(Blackhole blackhole) {
+        TickTockDBBatch batch = new TickTockDBBatch(arena);
+        for (byte[] line : lines)
+            batch.add(line, 0, line.length);
+        blackhole.consume(batch.content());
+        batch.release();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end sink throughput: TickTockDBSinkTask.put() of a batch of
+ * records, encoded, batched and written to a TickTockDBFake over HTTP or
+ * TCP. One operation is one record.
+ *
+ * put() measures the steady state, where the endpoints send in the
+ * background and put() blocks only when they fall behind. putAndFlush()
+ * waits for every put() to be acknowledged, so its sample time is the
+ * latency of getting a put() into TickTockDB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TickTockDBSinkPutBenchmark {
+    private static final int RECORDS = 1000;
+
+    @Param({ "http", "tcp" })
+    public String transport;
+
+    @Param({ "lines", "structs", "mixed" })
+    public String mix;
+
+    @Param({ "none", "gzip" })
+    public String compression;
+
+    private TickTockDBFake fake;
+    private TickTockDBSinkTask task;
+    private List<SinkRecord> records;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fake = new TickTockDBFake();
+        records = new TickTockDBRecordMix(42, 1000).records(mix, RECORDS);
+
+        Map<String, String> props = new HashMap<>();
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, fake.address(transport));
+        props.put(TickTockDBSinkConnector.TRANSPORT_CONFIG, transport);
+        props.put(TickTockDBSinkConnector.COMPRESSION_TYPE_CONFIG, compression);
+        props.put(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG, "4");
+        task = new TickTockDBSinkTask();
+        task.start(props);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        task.stop();
+        fake.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void put() {
+        task.put(records);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void putAndFlush() {
+        task.put(records);
+        task.flush(Collections.emptyMap());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source's per-line CPU work, without any I/O: framing HTTP requests
+ * into lines, and parsing lines into series keys and Structs. One operation
+ * is one line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TickTockDBSourceParseBenchmark {
+    private static final int LINES = 1000;
+
+    private List<String> lines;
+    private List<String> putLines;
+    private ByteBuffer request;
+    private TickTockDBPointParser parser;
+    private TickTockDBDictionary dictionary;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        lines = new TickTockDBRecordMix(42, 1000).lines(LINES);
+        putLines = new TickTockDBRecordMix(42, 1000).putLines(LINES);
+        parser = new TickTockDBPointParser(TickTockDBSourceConnector.DEFAULT_KEY_CACHE_SIZE);
+        dictionary = new TickTockDBDictionary(TickTockDBSourceConnector.DEFAULT_DICTIONARY_SIZE);
+
+        byte[] body = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("POST /api/write HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+        request = ByteBuffer.allocate(head.length + body.length).put(head).put(body).flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseLineProtocol(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(parser.parse(line));
+            blackhole.consume(parser.key());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parsePut(Blackhole blackhole) {
+        for (String line : putLines) {
+            blackhole.consume(parser.parse(line));
+            blackhole.consume(parser.key());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseStructs(Blackhole blackhole) {
+        long now = System.currentTimeMillis();
+        for (String line : lines) {
+            if (parser.parse(line))
+                blackhole.consume(parser.struct(dictionary, now));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void frameHttp(Blackhole blackhole) {
+        TickTockDBHttpParser http = new TickTockDBHttpParser(blackhole::consume);
+        http.parse(request.duplicate());
+        blackhole.consume(http.responses());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end source throughput: lines written over TCP, as fast as the
+ * source reads them, framed by the network thread and turned into records
+ * by TickTockDBSourceTask.poll().
+ *
+ * One operation is one poll(); the records counter reports records per
+ * second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TickTockDBSourcePollBenchmark {
+
+    @Param({ TickTockDBSourceConnector.OUTPUT_FORMAT_STRING, TickTockDBSourceConnector.OUTPUT_FORMAT_STRUCT })
+    public String format;
+
+    @Param({ "1", "4" })
+    public int connections;
+
+    private TickTockDBSourceTask task;
+    private Thread[] feeders;
+    private volatile boolean running;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long records;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, String> props = new HashMap<>();
+        props.put(TickTockDBSourceConnector.TOPIC_CONFIG, TickTockDBRecordMix.TOPIC);
+        props.put(TickTockDBSourceConnector.PORT_CONFIG, "0");
+        props.put(TickTockDBSourceConnector.OUTPUT_FORMAT_CONFIG, format);
+        task = new TickTockDBSourceTask();
+        task.start(props);
+
+        byte[] chunk = (String.join("\n", new TickTockDBRecordMix(42, 1000).lines(1000)) + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+        running = true;
+        feeders = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            feeders[i] = new Thread(() -> feed(task.port(), chunk), "feeder-" + i);
+            feeders[i].setDaemon(true);
+            feeders[i].start();
+        }
+    }
+
+    private void feed(int port, byte[] chunk) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024)) {
+            while (running)
+                out.write(chunk);
+        } catch (IOException e) {
+            if (running)
+                throw new IllegalStateException("Feeding the source failed", e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws InterruptedException {
+        running = false;
+        task.stop();
+        for (Thread feeder : feeders)
+            feeder.join(1000);
+    }
+
+    @Benchmark
+    public List<SourceRecord> poll(Counters counters) throws InterruptedException {
+        List<SourceRecord> records = task.poll();
+        if (records != null)
+            counters.records += records.size();
+        return records;
+    }
+}
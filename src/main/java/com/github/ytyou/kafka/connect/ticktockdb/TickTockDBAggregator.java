@@ -0,0 +1,287 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+/**
+ * TickTockDBAggregator downsamples data points into fixed time windows,
+ * aligned to multiples of the window size, and emits one point per series,
+ * field and window, timed at the start of the window.
+ *
+ * Running sum, count, min, max and last are kept in an open-addressing hash
+ * table of parallel primitive arrays, keyed by series, field and window, so
+ * adding a point to an open window allocates nothing. The Series of recently
+ * seen series are cached, and reused for their next windows, so opening a
+ * window for a known series does not allocate either.
+ *
+ * A window is closed, and emitted, once the watermark passes its end. The
+ * watermark trails the newest timestamp seen by the allowed lateness, and
+ * also advances with the wall clock, one window plus the lateness behind,
+ * so that windows close when the data stops. Points for a closed window are
+ * too late and are rejected.
+ *
+ * Not thread safe.
+ */
+class TickTockDBAggregator {
+    static final String AVG = "avg";
+    static final String SUM = "sum";
+    static final String MIN = "min";
+    static final String MAX = "max";
+    static final String LAST = "last";
+    static final String COUNT = "count";
+
+    /**
+     * What a series looks like on the way out.
+     */
+    static class Series {
+        final String key;       // series key, see TickTockDBPointParser
+        final String field;
+        final Object info;      // whatever the emitter needs to write the point
+
+        Series(String key, String field, Object info) {
+            this.key = key;
+            this.field = field;
+            this.info = info;
+        }
+    }
+
+    interface Emitter {
+        void emit(Series series, long window, double value);
+    }
+
+    private final long windowMs;
+    private final long latenessMs;
+    private final String function;
+    private final int maxEntries;
+
+    private int capacity;
+    private int mask;
+    private int size = 0;
+    private Series[] series;
+    private long[] windows;
+    private double[] sum, min, max, last;
+    private long[] count;
+    private final Series[] recent;  // direct-mapped, by series key and field
+
+    private long maxTimestamp = Long.MIN_VALUE;    // newest point seen
+    private long wallWatermark = Long.MIN_VALUE;   // how far the wall clock moved the watermark
+
+    /**
+     * @param maxEntries max number of open series windows; no more are opened once reached
+     */
+    TickTockDBAggregator(long windowMs, long latenessMs, String function, int maxEntries) {
+        this.windowMs = windowMs;
+        this.latenessMs = latenessMs;
+        this.function = function;
+        this.maxEntries = maxEntries;
+        this.recent = new Series[Integer.highestOneBit(Math.max(Math.min(maxEntries, 1 << 16) - 1, 1)) << 1];
+        allocate(1024);
+    }
+
+    /**
+     * @return number of open series windows
+     */
+    int size() {
+        return size;
+    }
+
+    interface SeriesFactory {
+        Series create();
+    }
+
+    /**
+     * What became of a data point.
+     */
+    enum Result {
+        ADDED,
+        LATE,   // its window has been closed already
+        FULL    // it needs a new series window, and there is no room for one
+    }
+
+    /**
+     * Add a data point.
+     *
+     * @param key series key
+     * @param factory creates the Series, if it is not cached
+     */
+    Result add(String key, String field, SeriesFactory factory, long timestamp, double value) {
+        long window = Math.floorDiv(timestamp, windowMs) * windowMs;
+        if (window + windowMs <= watermark(Long.MIN_VALUE))
+            return Result.LATE;
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+
+        int slot = find(key, field, window);
+        if (series[slot] == null) {
+            if (size >= maxEntries)
+                return Result.FULL;
+            series[slot] = series(key, field, factory);
+            windows[slot] = window;
+            sum[slot] = 0;
+            count[slot] = 0;
+            min[slot] = Double.POSITIVE_INFINITY;
+            max[slot] = Double.NEGATIVE_INFINITY;
+            if (++size * 2 > capacity) {
+                grow();
+                slot = find(key, field, window);
+            }
+        }
+
+        sum[slot] += value;
+        count[slot]++;
+        if (value < min[slot])
+            min[slot] = value;
+        if (value > max[slot])
+            max[slot] = value;
+        last[slot] = value;
+        return Result.ADDED;
+    }
+
+    /**
+     * Emit and forget the windows the watermark has passed.
+     *
+     * @param now wall clock time, in ms
+     */
+    void flush(long now, Emitter emitter) {
+        long watermark = watermark(now);
+        if (size == 0)
+            return;
+
+        boolean closed = false;
+        for (int i = 0; i < capacity; i++) {
+            if (series[i] != null && windows[i] + windowMs <= watermark) {
+                closed = true;
+                break;
+            }
+        }
+        if (closed)
+            rebuild(watermark, emitter);
+    }
+
+    private long watermark(long now) {
+        long byData = (maxTimestamp == Long.MIN_VALUE) ? Long.MIN_VALUE : maxTimestamp - latenessMs;
+        long byClock = (now == Long.MIN_VALUE) ? Long.MIN_VALUE : now - windowMs - latenessMs;
+        wallWatermark = Math.max(wallWatermark, byClock);
+        return Math.max(byData, wallWatermark);
+    }
+
+    private double value(int slot) {
+        switch (function) {
+            case SUM:   return sum[slot];
+            case MIN:   return min[slot];
+            case MAX:   return max[slot];
+            case LAST:  return last[slot];
+            case COUNT: return count[slot];
+            default:    return sum[slot] / count[slot];
+        }
+    }
+
+    private Series series(String key, String field, SeriesFactory factory) {
+        int i = (key.hashCode() * 31 + field.hashCode()) & (recent.length - 1);
+        Series s = recent[i];
+        if (s == null || ! s.key.equals(key) || ! s.field.equals(field)) {
+            s = factory.create();
+            recent[i] = s;
+        }
+        return s;
+    }
+
+    private int find(String key, String field, long window) {
+        int slot = hash(key, field, window) & mask;
+        while (series[slot] != null) {
+            Series s = series[slot];
+            if (windows[slot] == window && s.key.equals(key) && s.field.equals(field))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(String key, String field, long window) {
+        return (int) TickTockDBLineProtocol.mix(((long) key.hashCode() << 32) ^ (field.hashCode() & 0xFFFFFFFFL) ^ window);
+    }
+
+    private void grow() {
+        Series[] oldSeries = series;
+        long[] oldWindows = windows;
+        double[] oldSum = sum, oldMin = min, oldMax = max, oldLast = last;
+        long[] oldCount = count;
+
+        allocate(capacity * 2);
+        for (int i = 0; i < oldSeries.length; i++) {
+            if (oldSeries[i] != null)
+                move(oldSeries, oldWindows, oldSum, oldMin, oldMax, oldLast, oldCount, i);
+        }
+    }
+
+    /**
+     * Emit the windows that end at or before the watermark, and rehash the rest.
+     */
+    private void rebuild(long watermark, Emitter emitter) {
+        Series[] oldSeries = series;
+        long[] oldWindows = windows;
+        double[] oldSum = sum, oldMin = min, oldMax = max, oldLast = last;
+        long[] oldCount = count;
+
+        int open = 0;
+        for (int i = 0; i < oldSeries.length; i++) {
+            if (oldSeries[i] == null)
+                continue;
+            if (oldWindows[i] + windowMs <= watermark) {
+                emitter.emit(oldSeries[i], oldWindows[i], value(i));
+                oldSeries[i] = null;
+            } else {
+                open++;
+            }
+        }
+
+        int n = 1024;
+        while (n < open * 2)
+            n <<= 1;
+        allocate(n);
+        for (int i = 0; i < oldSeries.length; i++) {
+            if (oldSeries[i] != null)
+                move(oldSeries, oldWindows, oldSum, oldMin, oldMax, oldLast, oldCount, i);
+        }
+    }
+
+    private void move(Series[] oldSeries, long[] oldWindows, double[] oldSum, double[] oldMin, double[] oldMax,
+                      double[] oldLast, long[] oldCount, int i) {
+        Series s = oldSeries[i];
+        int slot = find(s.key, s.field, oldWindows[i]);
+        series[slot] = s;
+        windows[slot] = oldWindows[i];
+        sum[slot] = oldSum[i];
+        min[slot] = oldMin[i];
+        max[slot] = oldMax[i];
+        last[slot] = oldLast[i];
+        count[slot] = oldCount[i];
+        size++;
+    }
+
+    private void allocate(int n) {
+        capacity = n;
+        mask = n - 1;
+        size = 0;
+        series = new Series[n];
+        windows = new long[n];
+        sum = new double[n];
+        min = new double[n];
+        max = new double[n];
+        last = new double[n];
+        count = new long[n];
+    }
+}
@@ -0,0 +1,82 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * TickTockDBArena is a pool of fixed size direct ByteBuffer chunks that a
+ * sink task builds its request bodies in. Chunks go back to the pool once
+ * TickTockDB has accepted the batch they held, so in a steady state batches
+ * are built, compressed and sent without allocating any buffers.
+ *
+ * At most maxBytes of idle chunks are kept; anything released beyond that is
+ * left to the garbage collector, and so are chunks of batches that failed,
+ * since the transport may not be done with them yet.
+ *
+ * Chunks are taken by the task and the spool threads, and released from
+ * whatever thread completes a request, so the pool is synchronized.
+ */
+class TickTockDBArena {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final int maxChunks;
+    private long allocated = 0;     // chunks ever allocated
+
+    /**
+     * @param maxBytes max number of bytes of idle chunks to keep
+     */
+    TickTockDBArena(long maxBytes) {
+        this.maxChunks = (int) Math.min(Integer.MAX_VALUE, maxBytes / CHUNK_SIZE);
+    }
+
+    /**
+     * @return an empty chunk, of CHUNK_SIZE bytes
+     */
+    synchronized ByteBuffer acquire() {
+        ByteBuffer chunk = free.pollLast();     // the most recently used one is the most likely to be cached
+        if (chunk == null) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            allocated++;
+        }
+        return chunk;
+    }
+
+    synchronized void release(ByteBuffer chunk) {
+        if (free.size() < maxChunks) {
+            chunk.clear();
+            free.add(chunk);
+        }
+    }
+
+    /**
+     * @return number of chunks allocated so far
+     */
+    synchronized long allocated() {
+        return allocated;
+    }
+
+    /**
+     * @return number of idle chunks in the pool
+     */
+    synchronized int idle() {
+        return free.size();
+    }
+}
@@ -0,0 +1,324 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TickTockDBBatch collects line protocol records into one newline separated
+ * request body, so that many data points can be sent with a single /api/write.
+ *
+ * The body is kept in direct chunks from a TickTockDBArena, filled one after
+ * the other, and handed to the transport as they are, see content(). The
+ * chunks go back to the arena with release(). A batch read back from the
+ * spool instead wraps the spooled bytes, and has nothing to release; its
+ * records, if they were kept, come back with it.
+ *
+ * A batch may also keep the record every line came from, so that it can be
+ * split in two, and a line TickTockDB rejects be traced back to its record.
+ */
+class TickTockDBBatch {
+    private final TickTockDBArena arena;    // null if the content is not ours to release
+    private ByteBuffer[] chunks = new ByteBuffer[4];    // content is [0, position) of each
+    private int chunkCount = 0;
+    private int size = 0;       // bytes of content
+    private int count = 0;      // number of records
+    private long created = 0;   // ms, when the first record was added
+    private long sent = 0;      // ms, when the batch was handed to the transport
+    private int lane = 0;       // which of the transport's connections it goes over
+    private final Map<TopicPartition, Long> offsets = new HashMap<>();  // lowest offset per partition
+
+    // if records are kept: where each line ends, and the record it came from
+    private int[] ends;
+    private SinkRecord[] records;
+
+    TickTockDBBatch(TickTockDBArena arena) {
+        this(arena, false);
+    }
+
+    /**
+     * @param keepRecords whether to remember the record of every line
+     */
+    TickTockDBBatch(TickTockDBArena arena, boolean keepRecords) {
+        this.arena = arena;
+        if (keepRecords) {
+            ends = new int[64];
+            records = new SinkRecord[64];
+        }
+    }
+
+    /**
+     * A batch of count records that are already newline terminated.
+     */
+    TickTockDBBatch(ByteBuffer content, int count) {
+        this.arena = null;
+        ByteBuffer chunk = content.slice();
+        chunk.position(chunk.limit());
+        chunks[chunkCount++] = chunk;
+        this.size = chunk.limit();
+        this.count = count;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * A batch of count records that are already newline terminated, with
+     * where each line ends, and the record it came from; see ends() and records().
+     */
+    TickTockDBBatch(ByteBuffer content, int count, int[] ends, SinkRecord[] records) {
+        this(content, count);
+        this.ends = ends;
+        this.records = records;
+    }
+
+    /**
+     * Append one line protocol record, followed by a newline.
+     */
+    void add(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer chunk = tail();
+            int n = Math.min(chunk.remaining(), length);
+            chunk.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+            size += n;
+        }
+        tail().put((byte) '\n');
+        size++;
+        if (count++ == 0)
+            created = System.currentTimeMillis();
+    }
+
+    /**
+     * Append one line protocol record, followed by a newline, and remember
+     * the record it came from, if records are kept.
+     */
+    void add(byte[] bytes, int offset, int length, SinkRecord record) {
+        add(bytes, offset, length);
+        if (records != null)
+            line(record);
+    }
+
+    /**
+     * @return whether the batch has more than one line, and knows their records
+     */
+    boolean canSplit() {
+        return records != null && count > 1;
+    }
+
+    /**
+     * @return the record line i came from, or null if records are not kept
+     */
+    SinkRecord record(int i) {
+        return (records == null) ? null : records[i];
+    }
+
+    /**
+     * @return where each line ends, or null if records are not kept
+     */
+    int[] ends() {
+        return (records == null) ? null : Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * @return the record of each line, or null if records are not kept
+     */
+    SinkRecord[] records() {
+        return (records == null) ? null : Arrays.copyOf(records, count);
+    }
+
+    /**
+     * Copy the first and the second half of the lines into two new batches,
+     * with their records and offsets, in chunks from the arena. See canSplit().
+     */
+    TickTockDBBatch[] split(TickTockDBArena arena) {
+        int half = count / 2;
+        return new TickTockDBBatch[] { copy(arena, 0, half), copy(arena, half, count) };
+    }
+
+    private TickTockDBBatch copy(TickTockDBArena arena, int from, int to) {
+        TickTockDBBatch copy = new TickTockDBBatch(arena, true);
+        int chunkSize = chunks[0].capacity();   // all chunks are filled up before the next is taken
+
+        for (int i = from; i < to; i++) {
+            // line i is [ends[i - 1], ends[i]), newline included
+            for (int p = (i == 0) ? 0 : ends[i - 1]; p < ends[i]; ) {
+                ByteBuffer src = chunks[p / chunkSize].duplicate();
+                int n = Math.min(ends[i] - p, chunkSize - p % chunkSize);
+                src.limit(p % chunkSize + n).position(p % chunkSize);
+                copy.put(src);
+                p += n;
+            }
+            if (copy.count++ == 0) {
+                copy.created = created;
+                copy.lane = lane;
+            }
+            copy.line(records[i]);
+            copy.track(new TopicPartition(records[i].originalTopic(), records[i].originalKafkaPartition()),
+                records[i].originalKafkaOffset());
+        }
+        return copy;
+    }
+
+    private void put(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            ByteBuffer chunk = tail();
+            int n = Math.min(chunk.remaining(), src.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            chunk.put(part);
+            src.position(src.position() + n);
+            size += n;
+        }
+    }
+
+    // the line just added, which is line count - 1, came from this record
+    private void line(SinkRecord record) {
+        if (count > ends.length) {
+            ends = Arrays.copyOf(ends, ends.length * 2);
+            records = Arrays.copyOf(records, records.length * 2);
+        }
+        ends[count - 1] = size;
+        records[count - 1] = record;
+    }
+
+    /**
+     * @return the chunk to write more content into, directly; it has room
+     *         for at least one byte. Call wrote() afterwards.
+     */
+    ByteBuffer tail() {
+        ByteBuffer chunk = (chunkCount == 0) ? null : chunks[chunkCount - 1];
+        if (chunk == null || ! chunk.hasRemaining()) {
+            if (chunkCount == chunks.length)
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            chunk = arena.acquire();
+            chunks[chunkCount++] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Account for bytes written into tail().
+     */
+    void wrote(int bytes) {
+        size += bytes;
+    }
+
+    /**
+     * @return the content, as one read-only view per chunk
+     */
+    ByteBuffer[] content() {
+        ByteBuffer[] content = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            ByteBuffer view = chunks[i].asReadOnlyBuffer();
+            view.flip();
+            content[i] = view;
+        }
+        return content;
+    }
+
+    /**
+     * Return the chunks to the arena. The batch is empty afterwards, and
+     * nothing may still be reading its content.
+     */
+    void release() {
+        for (int i = 0; i < chunkCount; i++) {
+            if (arena != null)
+                arena.release(chunks[i]);
+            chunks[i] = null;
+        }
+        if (records != null)
+            Arrays.fill(records, 0, count, null);
+        chunkCount = 0;
+        size = 0;
+        count = 0;
+    }
+
+    /**
+     * Remember that the record at this offset is in this batch.
+     * Records of a partition are expected in offset order.
+     */
+    void track(TopicPartition partition, long offset) {
+        if (! offsets.containsKey(partition))
+            offsets.put(partition, offset);
+    }
+
+    /**
+     * @return the lowest offset of the partition in this batch, or null if there is none
+     */
+    Long firstOffset(TopicPartition partition) {
+        return offsets.get(partition);
+    }
+
+    /**
+     * @return the lowest offset per partition
+     */
+    Map<TopicPartition, Long> offsets() {
+        return offsets;
+    }
+
+    /**
+     * @return which of the transport's connections the batch goes over; see TickTockDBEndpoint
+     */
+    int lane() {
+        return lane;
+    }
+
+    void lane(int lane) {
+        this.lane = lane;
+    }
+
+    void markSent(long now) {
+        sent = now;
+    }
+
+    long sent() {
+        return sent;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return true if either the byte limit or the record limit is reached
+     */
+    boolean isFull(int maxBytes, int maxRecords) {
+        return size >= maxBytes || count >= maxRecords;
+    }
+
+    /**
+     * @return true if the oldest record in this batch has waited at least lingerMs
+     */
+    boolean isExpired(long now, long lingerMs) {
+        return count > 0 && (now - created) >= lingerMs;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int count() {
+        return count;
+    }
+}
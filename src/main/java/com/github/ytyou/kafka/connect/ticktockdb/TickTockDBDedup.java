@@ -0,0 +1,167 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.Arrays;
+
+/**
+ * TickTockDBDedup collects the lines of one put() and, before they are sent,
+ * drops every line that a later line of the same data point replaces: same
+ * series, same field names, same timestamp. Redelivered records are the
+ * usual source of those, after a retry or a rebalance.
+ *
+ * Lines are told apart by the 64 bit hash TickTockDBLineProtocol computes
+ * while validating them, looked up in an open-addressing table of longs.
+ * Only when the hashes match are the two lines compared byte by byte, so
+ * that a collision never drops a different data point. Lines without a
+ * timestamp get theirs from TickTockDB, and are always kept.
+ *
+ * Records arrive in offset order per partition, so keeping the last line of
+ * a data point keeps the one with the highest offset. The lines are copied
+ * into one buffer, reused from one put() to the next.
+ *
+ * Not thread safe.
+ */
+class TickTockDBDedup {
+    interface Sink {
+        void add(int target, byte[] bytes, int offset, int length, SinkRecord record, TopicPartition partition, long kafkaOffset);
+    }
+
+    private byte[] buffer = new byte[64 * 1024];
+    private int size = 0;
+
+    // one entry per line
+    private int count = 0;
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];      // -1 once replaced
+    private int[] targets = new int[1024];
+    private SinkRecord[] records = new SinkRecord[1024];
+    private TopicPartition[] partitions = new TopicPartition[1024];
+    private long[] offsets = new long[1024];
+
+    // point hash -> 1 + index of the last line with it
+    private long[] keys = new long[2048];
+    private int[] lines = new int[2048];
+    private int mask = 2047;
+    private int used = 0;
+
+    /**
+     * @param target where the line goes, passed back to the Sink
+     * @param pointHash see TickTockDBLineProtocol.pointHash(); 0 to always keep the line
+     */
+    void add(byte[] bytes, int offset, int length, int target, SinkRecord record, TopicPartition partition, long kafkaOffset,
+             long pointHash) {
+        if (count == starts.length)
+            growLines();
+        if (size + length > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(size + length, buffer.length * 2));
+
+        System.arraycopy(bytes, offset, buffer, size, length);
+        starts[count] = size;
+        lengths[count] = length;
+        targets[count] = target;
+        records[count] = record;
+        partitions[count] = partition;
+        offsets[count] = kafkaOffset;
+        size += length;
+
+        if (pointHash != 0) {
+            int slot = (int) pointHash & mask;
+            while (lines[slot] != 0 && ! (keys[slot] == pointHash && samePoint(lines[slot] - 1, count)))
+                slot = (slot + 1) & mask;
+            if (lines[slot] != 0) {
+                lengths[lines[slot] - 1] = -1;
+            } else {
+                keys[slot] = pointHash;
+                used++;
+            }
+            lines[slot] = count + 1;
+        }
+        count++;
+
+        if (used * 2 > keys.length)
+            growTable();
+    }
+
+    private boolean samePoint(int i, int j) {
+        return TickTockDBLineProtocol.samePoint(buffer, starts[i], starts[i] + lengths[i], buffer, starts[j], starts[j] + lengths[j]);
+    }
+
+    /**
+     * Hand the remaining lines to the sink, in the order they were added,
+     * and start over.
+     *
+     * @return number of lines dropped as duplicates
+     */
+    int drain(Sink sink) {
+        int dropped = 0;
+        for (int i = 0; i < count; i++) {
+            if (lengths[i] < 0)
+                dropped++;
+            else
+                sink.add(targets[i], buffer, starts[i], lengths[i], records[i], partitions[i], offsets[i]);
+        }
+
+        Arrays.fill(records, 0, count, null);
+        Arrays.fill(partitions, 0, count, null);
+        if (used > 0)
+            Arrays.fill(lines, 0);
+        size = 0;
+        count = 0;
+        used = 0;
+        return dropped;
+    }
+
+    /**
+     * @return number of lines added since the last drain()
+     */
+    int count() {
+        return count;
+    }
+
+    private void growLines() {
+        int n = count * 2;
+        starts = Arrays.copyOf(starts, n);
+        lengths = Arrays.copyOf(lengths, n);
+        targets = Arrays.copyOf(targets, n);
+        records = Arrays.copyOf(records, n);
+        partitions = Arrays.copyOf(partitions, n);
+        offsets = Arrays.copyOf(offsets, n);
+    }
+
+    private void growTable() {
+        long[] oldKeys = keys;
+        int[] oldLines = lines;
+
+        keys = new long[oldKeys.length * 2];
+        lines = new int[oldLines.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldLines[i] == 0)
+                continue;
+            int slot = (int) oldKeys[i] & mask;
+            while (lines[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            lines[slot] = oldLines[i];
+        }
+    }
+}
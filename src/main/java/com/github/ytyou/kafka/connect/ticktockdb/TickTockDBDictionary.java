@@ -0,0 +1,79 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+/**
+ * TickTockDBDictionary interns metric names, tag keys and values, and field
+ * names, so that every record of a series shares the same String instances
+ * instead of each holding its own copies.
+ *
+ * It is a direct-mapped table: a string goes into the slot its hash points
+ * to, replacing whatever was there. That keeps it bounded without any
+ * bookkeeping, and a lookup of a region of a line that hits allocates nothing.
+ *
+ * Not thread safe.
+ */
+class TickTockDBDictionary {
+    private final String[] slots;
+    private final int mask;
+    private long hits = 0;
+    private long lookups = 0;
+
+    /**
+     * @param size rounded up to a power of 2
+     */
+    TickTockDBDictionary(int size) {
+        int n = 1;
+        while (n < size)
+            n <<= 1;
+        slots = new String[n];
+        mask = n - 1;
+    }
+
+    /**
+     * @return the interned copy of s.substring(start, end)
+     */
+    String intern(String s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + s.charAt(i);
+
+        int slot = (int) TickTockDBLineProtocol.mix(hash) & mask;
+        String cached = slots[slot];
+        lookups++;
+        if (cached != null && cached.length() == end - start && s.regionMatches(start, cached, 0, end - start)) {
+            hits++;
+            return cached;
+        }
+
+        String value = s.substring(start, end);
+        slots[slot] = value;
+        return value;
+    }
+
+    String intern(String s) {
+        return intern(s, 0, s.length());
+    }
+
+    /**
+     * @return fraction of lookups that found their string already interned
+     */
+    double hitRatio() {
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+}
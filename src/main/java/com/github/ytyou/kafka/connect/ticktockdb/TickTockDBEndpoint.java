@@ -0,0 +1,650 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TickTockDBEndpoint is one TickTockDB node the sink task writes to, with its
+ * own batch, queue of batches ready to go, and writer. Over tcp, every
+ * connection has a lane, with a batch of its own, and a partition always
+ * goes through the same lane.
+ *
+ * A partition's batches reach TickTockDB in order: the queue is sent oldest
+ * first, and the batch at its head waits while one of the same partitions is
+ * in flight, see TickTockDBWriter, or in the spool.
+ *
+ * Full batches wait here while the writer has maxInFlight requests
+ * outstanding. Once more than maxQueued do, the endpoint is backlogged, and
+ * the task pauses the partitions of the queued batches, rather than wait, so
+ * a slow node only holds up those partitions, not the other endpoints.
+ *
+ * With adaptive concurrency, a TickTockDBLimiter decides how many requests
+ * may be outstanding, and how big a batch gets, from how fast TickTockDB
+ * accepts them.
+ *
+ * If the worker has an errant record reporter, a batch TickTockDB rejects
+ * is split in two, and both halves are queued again, until the lines it
+ * rejects are on their own; those records go to the reporter, and the rest
+ * are written. That takes about log2(n) extra requests per bad line.
+ * Without a reporter, a rejected batch fails the task, or is dropped if
+ * errors.tolerance is "all". Either way it is never spooled, as sending it
+ * again would not help.
+ *
+ * If a spool directory is configured, batches TickTockDB does not accept go
+ * to a TickTockDBSpool and are retried from there, instead of failing the
+ * task. While the endpoint is unhealthy, batches go straight to the spool,
+ * rather than time out one after the other first. The spool replays on its
+ * own thread, but hands the outcome back to the task thread, which treats
+ * it like that of any other batch, rejections included. A spooled batch
+ * TickTockDB rejects is split right away, while the spool waits.
+ *
+ * The endpoint is unhealthy from the time a batch fails, or a probe finds
+ * TickTockDB not answering, until a batch or a probe succeeds again. Probes
+ * also open, and keep open, probeConnections connections, so that batches
+ * do not wait for connections to be made.
+ */
+class TickTockDBEndpoint implements TickTockDBWriter.Listener {
+    private static final Logger log = LoggerFactory.getLogger(TickTockDBEndpoint.class);
+    // the worker's error handling settings, passed on to the task
+    static final String ERRORS_TOLERANCE_CONFIG = "errors.tolerance";
+    static final String TOLERANCE_ALL = "all";
+
+    private final String address;
+    private final TickTockDBWriter writer;
+    private final TickTockDBArena arena;    // where batches get their buffers from
+    private final ErrantRecordReporter reporter;    // null if rejected records fail the task
+    private final boolean tolerateAll;      // drop rejected batches when there is no reporter
+    private final TickTockDBSinkMetrics metrics;
+    private final TickTockDBSpool spool;    // null if not configured
+    private final String spoolFullAction;
+    private final ArrayDeque<TickTockDBBatch> queued = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<Replayed> replayed = new ConcurrentLinkedQueue<>();  // by the spool
+    private final int maxQueued;
+    private boolean pausable;                   // the task pauses partitions rather than wait
+    private final int maxBytes;
+    private final TickTockDBLimiter limiter;    // null unless adaptive
+    private volatile int batchBytes;            // current limit, up to maxBytes
+    private final int maxRecords;
+    private final TickTockDBBatch[] batches;    // the current batch of every lane
+
+    // health
+    private volatile boolean healthy = true;
+    private volatile double latency = 0;    // ms, moving average of completed batches
+    private volatile int failures = 0;      // consecutive
+    private final int probeConnections;
+    private final long probeTimeoutMs;
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    /**
+     * @param reporter where to send records TickTockDB rejects, or null to fail instead
+     */
+    TickTockDBEndpoint(String address, TickTockDBArena arena, ErrantRecordReporter reporter,
+                       TickTockDBSinkMetrics metrics, AbstractConfig config) {
+        this.address = address;
+        this.arena = arena;
+        this.metrics = metrics;
+        // there are no responses over tcp, so nothing gets rejected
+        boolean tcp = TickTockDBSinkConnector.TRANSPORT_TCP.equals(config.getString(TickTockDBSinkConnector.TRANSPORT_CONFIG));
+        this.reporter = tcp ? null : reporter;
+        this.tolerateAll = TOLERANCE_ALL.equalsIgnoreCase(config.originalsStrings().get(ERRORS_TOLERANCE_CONFIG));
+        this.maxQueued = config.getInt(TickTockDBSinkConnector.MAX_QUEUED_BATCHES_CONFIG);
+        this.maxBytes = config.getInt(TickTockDBSinkConnector.BATCH_MAX_BYTES_CONFIG);
+        String error = TickTockDBSinkConnector.spoolSizeError(config.getString(TickTockDBSinkConnector.SPOOL_DIR_CONFIG),
+            maxBytes, config.getLong(TickTockDBSinkConnector.SPOOL_MAX_BYTES_CONFIG));
+        if (error != null)
+            throw new ConfigException(error);
+        this.maxRecords = config.getInt(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG);
+        this.probeConnections = config.getInt(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG);
+        this.probeTimeoutMs = config.getLong(TickTockDBSinkConnector.PROBE_TIMEOUT_MS_CONFIG);
+        batches = new TickTockDBBatch[tcp ? config.getInt(TickTockDBSinkConnector.TCP_CONNECTIONS_CONFIG) : 1];
+        for (int i = 0; i < batches.length; i++)
+            batches[i] = newBatch(i);
+
+        int maxInFlight = config.getInt(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG);
+        if (config.getBoolean(TickTockDBSinkConnector.ADAPTIVE_CONCURRENCY_CONFIG)) {
+            limiter = new TickTockDBLimiter(
+                config.getInt(TickTockDBSinkConnector.ADAPTIVE_MIN_IN_FLIGHT_CONFIG), maxInFlight,
+                config.getInt(TickTockDBSinkConnector.ADAPTIVE_MIN_BATCH_BYTES_CONFIG), maxBytes,
+                config.getDouble(TickTockDBSinkConnector.ADAPTIVE_LATENCY_TOLERANCE_CONFIG));
+            maxInFlight = limiter.inFlight();
+            batchBytes = limiter.batchBytes();
+        } else {
+            limiter = null;
+            batchBytes = maxBytes;
+        }
+        if (tcp)
+            writer = new TickTockDBTcpWriter(address,
+                config.getInt(TickTockDBSinkConnector.TCP_CONNECTIONS_CONFIG),
+                config.getInt(TickTockDBSinkConnector.RECONNECT_ATTEMPTS_CONFIG),
+                config.getLong(TickTockDBSinkConnector.RECONNECT_BACKOFF_MS_CONFIG),
+                config.getLong(TickTockDBSinkConnector.REQUEST_TIMEOUT_MS_CONFIG),
+                maxInFlight, this);
+        else
+            writer = new TickTockDBHttpWriter(address, arena,
+                config.getString(TickTockDBSinkConnector.COMPRESSION_TYPE_CONFIG),
+                config.getInt(TickTockDBSinkConnector.COMPRESSION_LEVEL_CONFIG),
+                config.getInt(TickTockDBSinkConnector.COMPRESSION_MIN_BYTES_CONFIG),
+                config.getLong(TickTockDBSinkConnector.REQUEST_TIMEOUT_MS_CONFIG),
+                maxInFlight, this);
+
+        String spoolDir = config.getString(TickTockDBSinkConnector.SPOOL_DIR_CONFIG);
+        spoolFullAction = config.getString(TickTockDBSinkConnector.SPOOL_FULL_ACTION_CONFIG);
+        if (spoolDir == null || spoolDir.isEmpty()) {
+            spool = null;
+        } else {
+            // every task gets its own directory, see TickTockDBSpool
+            File dir = new File(spoolDir, address.replaceAll("[^A-Za-z0-9.-]", "_") + "-" + UUID.randomUUID());
+            spool = new TickTockDBSpool(address, dir,
+                config.getInt(TickTockDBSinkConnector.SPOOL_SEGMENT_BYTES_CONFIG),
+                config.getLong(TickTockDBSinkConnector.SPOOL_MAX_BYTES_CONFIG),
+                config.getLong(TickTockDBSinkConnector.SPOOL_RETRY_BACKOFF_MS_CONFIG),
+                this::replay);
+        }
+    }
+
+    String address() {
+        return address;
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    double latency() {
+        return latency;
+    }
+
+    int failures() {
+        return failures;
+    }
+
+    /**
+     * @return true if batches TickTockDB does not accept are spooled, rather than fail the task
+     */
+    boolean isSpooled() {
+        return spool != null;
+    }
+
+    /**
+     * Check, in the background, that TickTockDB answers, opening connections
+     * as needed, and mark the endpoint healthy or not accordingly.
+     *
+     * @return completes with TickTockDB's version, or null if it did not
+     *         answer, or a probe was still running
+     */
+    CompletableFuture<String> probe() {
+        if (! probing.compareAndSet(false, true))
+            return CompletableFuture.completedFuture(null);
+        return writer.probe(probeConnections, probeTimeoutMs)
+            .orTimeout(probeTimeoutMs, TimeUnit.MILLISECONDS)
+            .handle((version, error) -> {
+                probing.set(false);
+                if (error == null) {
+                    healthy();
+                    return version;
+                }
+                Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+                unhealthy((cause.getMessage() == null) ? cause.toString() : cause.getMessage());
+                return null;
+            });
+    }
+
+    /**
+     * @return the limiter, or null if concurrency is not adaptive
+     */
+    TickTockDBLimiter limiter() {
+        return limiter;
+    }
+
+    /**
+     * @return number of batches sent and not answered yet
+     */
+    int inFlight() {
+        return writer.inFlight();
+    }
+
+    /**
+     * @return number of full batches waiting to be sent
+     */
+    int queued() {
+        return queued.size();
+    }
+
+    /**
+     * @return true if more than maxQueued batches wait to be sent
+     */
+    boolean isBacklogged() {
+        return queued.size() > maxQueued;
+    }
+
+    /**
+     * Add the partitions of the queued batches to the set.
+     */
+    void queuedPartitions(Set<TopicPartition> partitions) {
+        for (TickTockDBBatch b : queued)
+            partitions.addAll(b.offsets().keySet());
+    }
+
+    /**
+     * Let the task pause the partitions of queued batches, rather than wait
+     * for the writer while more than maxQueued batches wait to be sent.
+     */
+    void pausable() {
+        pausable = true;
+    }
+
+    /**
+     * @return number of bytes waiting in the spool
+     */
+    long spooled() {
+        return (spool == null) ? 0 : spool.bytes();
+    }
+
+    /**
+     * @return how long the oldest spooled batch has been waiting, in ms, or 0 if there is none
+     */
+    long spoolAge(long now) {
+        return (spool == null) ? 0 : spool.age(now);
+    }
+
+    void add(byte[] bytes, int off, int len, SinkRecord record, TopicPartition partition, long offset) {
+        int lane = (batches.length == 1) ? 0 : Math.floorMod(partition.hashCode(), batches.length);
+        TickTockDBBatch batch = batches[lane];
+        batch.add(bytes, off, len, record);
+        batch.track(partition, offset);
+        if (batch.isFull(batchBytes, maxRecords))
+            enqueue(lane);
+    }
+
+    /**
+     * Queue the current batches that have waited long enough, and hand
+     * queued batches to the writer as far as it has room for them.
+     */
+    void linger(long now, long lingerMs) {
+        for (int i = 0; i < batches.length; i++) {
+            if (batches[i].isExpired(now, lingerMs))
+                enqueue(i);
+        }
+        pump();
+    }
+
+    /**
+     * Send everything, and wait until TickTockDB has either accepted it,
+     * or it went to the spool.
+     */
+    void flush() {
+        for (int i = 0; i < batches.length; i++) {
+            if (! batches[i].isEmpty())
+                enqueue(i);
+        }
+        // rejected batches come back as halves
+        do {
+            pump(0);
+            writer.poll(true);
+        } while (! queued.isEmpty());
+    }
+
+    /**
+     * @return the lowest offset of the partition not yet accepted by TickTockDB, or null if there is none
+     */
+    Long firstUnacked(TopicPartition partition) {
+        // Split halves of a rejected batch are queued again behind newer
+        // batches of other partitions already in flight, and spooled batches
+        // may be older than anything else, so no one place is sure to hold
+        // the oldest.
+        Long offset = writer.firstUnacked(partition);
+        for (TickTockDBBatch b : queued)
+            offset = TickTockDBWriter.min(offset, b.firstOffset(partition));
+        for (TickTockDBBatch b : batches)
+            offset = TickTockDBWriter.min(offset, b.firstOffset(partition));
+        if (spool != null)
+            offset = TickTockDBWriter.min(offset, spool.firstOffset(partition));
+        return offset;
+    }
+
+    void close() {
+        writer.close();
+        if (spool != null)
+            spool.close();
+    }
+
+    @Override
+    public void acked(TickTockDBBatch batch) {
+        acked(batch, System.currentTimeMillis());
+    }
+
+    private void acked(TickTockDBBatch batch, long now) {
+        latency = 0.8 * latency + 0.2 * (now - batch.sent());
+        metrics.recordLatency(now - batch.sent());
+        failures = 0;
+        if (limiter != null) {
+            limiter.acked(now - batch.sent(), batch.size(), now);
+            adapt();
+        }
+        healthy();
+    }
+
+    @Override
+    public boolean failed(TickTockDBBatch batch, ConnectException error) {
+        if (error instanceof TickTockDBWriter.Rejected)
+            return rejected(batch, error);
+
+        metrics.recordFailed();
+        failures++;
+        if (limiter != null) {
+            limiter.failed(System.currentTimeMillis());
+            adapt();
+        }
+        unhealthy(error.getMessage());
+        return spool(batch);
+    }
+
+    /**
+     * Report, drop or fail on a batch TickTockDB rejected; never spool it.
+     */
+    private boolean rejected(TickTockDBBatch batch, ConnectException error) {
+        if (reporter != null && batch.record(0) != null) {
+            isolate(batch, error);
+            return true;
+        }
+        metrics.recordFailed();
+        if (! tolerateAll)
+            return false;
+        log.error("TickTockDB endpoint {} rejected {} records, dropping them: {}", address, batch.count(), error.getMessage());
+        // TickTockDB has responded, so the transport is done with it
+        batch.release();
+        return true;
+    }
+
+    /**
+     * Handle, on the task thread, what the spool's replays came to.
+     */
+    private void replayed() {
+        Replayed r;
+        // peeked, not polled, so that a batch failing the task keeps failing it
+        while ((r = replayed.peek()) != null) {
+            if (r.error == null) {
+                acked(r.batch, r.acked);
+            } else if (! (r.error instanceof TickTockDBWriter.Rejected)) {
+                failures++;
+            } else if (reporter != null && r.batch.record(0) != null) {
+                r.handled(isolateNow(r.batch, r.error));
+            } else if (rejected(r.batch, r.error)) {
+                r.handled(true);
+            } else {
+                r.handled(false);   // still spooled, so never acknowledged
+                throw r.error;
+            }
+            replayed.poll();
+        }
+    }
+
+    private void healthy() {
+        if (! healthy) {
+            healthy = true;
+            log.info("TickTockDB endpoint {} is healthy again", address);
+        }
+    }
+
+    private void unhealthy(String reason) {
+        if (healthy) {
+            healthy = false;
+            log.warn("TickTockDB endpoint {} is unhealthy: {}", address, reason);
+        }
+    }
+
+    /**
+     * @return false if there is no spool, or no room in it
+     */
+    private boolean spool(TickTockDBBatch batch) {
+        if (spool == null)
+            return false;
+        if (spool.append(batch))
+            return true;
+
+        if (! spool.fits(batch.size())) {
+            // one big record can take a batch past batch.max.bytes
+            log.error("Batch of {} records for {} is larger than its spool", batch.count(), address);
+            return false;
+        }
+
+        switch (spoolFullAction) {
+            case TickTockDBSinkConnector.SPOOL_FULL_BLOCK:
+                while (spool.await(batch.size(), 1000)) {
+                    if (spool.append(batch))
+                        return true;
+                    // the spool may be waiting for us, see replay()
+                    replayed();
+                }
+                return false;
+            case TickTockDBSinkConnector.SPOOL_FULL_DROP:
+                log.warn("Spool for {} is full, dropping {} records", address, batch.count());
+                return true;
+            default:
+                log.error("Spool for {} is full", address);
+                return false;
+        }
+    }
+
+    /**
+     * Called by the spool, from its own thread, to send a batch again. All
+     * but the endpoint's health is left to the task thread, see replayed().
+     */
+    private Boolean replay(TickTockDBBatch batch) {
+        batch.markSent(System.currentTimeMillis());
+        ConnectException error = write(batch);
+        if (error == null) {
+            healthy();
+            replayed.add(new Replayed(batch, System.currentTimeMillis(), null));
+            return true;
+        }
+        if (! (error instanceof TickTockDBWriter.Rejected)) {
+            replayed.add(new Replayed(batch, 0, error));
+            return false;
+        }
+
+        // TickTockDB answered. Wait for the task thread to deal with the
+        // batch, so that nothing newer of its partitions goes before it.
+        healthy();
+        Replayed r = new Replayed(batch, 0, error);
+        replayed.add(r);
+        try {
+            return r.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Write the batch, bypassing the writer's limits, and wait for TickTockDB to answer.
+     *
+     * @return null if TickTockDB accepted the batch, or why not
+     */
+    private ConnectException write(TickTockDBBatch batch) {
+        try {
+            writer.write(batch).get();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ConnectException("Interrupted while sending to " + address, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConnectException)
+                return (ConnectException) e.getCause();
+            return new ConnectException("Failed to send to " + address, e.getCause());
+        }
+    }
+
+    /**
+     * Split a rejected spooled batch, and write the halves one by one right
+     * away, until the lines TickTockDB rejects are reported.
+     *
+     * @return false if TickTockDB failed on the way, so the spool should replay the batch again
+     */
+    private boolean isolateNow(TickTockDBBatch batch, ConnectException error) {
+        ArrayDeque<TickTockDBBatch> pending = new ArrayDeque<>();
+        isolate(batch, error, pending);
+        while (! pending.isEmpty()) {
+            TickTockDBBatch b = pending.poll();
+            b.markSent(System.currentTimeMillis());
+            ConnectException e = write(b);
+            if (e == null) {
+                acked(b);
+                b.release();
+            } else if (e instanceof TickTockDBWriter.Rejected) {
+                isolate(b, e, pending);
+            } else {
+                log.debug("Failed to split {} spooled records for {}, replaying them again", batch.count(), address, e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void isolate(TickTockDBBatch batch, ConnectException error) {
+        isolate(batch, error, queued);
+    }
+
+    /**
+     * Split a rejected batch into the front of the queue, or report its one line's record.
+     */
+    private void isolate(TickTockDBBatch batch, ConnectException error, ArrayDeque<TickTockDBBatch> queue) {
+        if (batch.canSplit()) {
+            TickTockDBBatch[] halves = batch.split(arena);
+            queue.addFirst(halves[1]);
+            queue.addFirst(halves[0]);
+            log.debug("Splitting {} records rejected by {}", batch.count(), address);
+        } else {
+            SinkRecord record = batch.record(0);
+            log.warn("TickTockDB endpoint {} rejected the record at offset {} of {}-{}: {}", address,
+                record.originalKafkaOffset(), record.originalTopic(), record.originalKafkaPartition(), error.getMessage());
+            reporter.report(record, error);
+            metrics.recordRejected();
+        }
+        // TickTockDB has responded, so the transport is done with it
+        batch.release();
+    }
+
+    private void adapt() {
+        writer.maxInFlight(limiter.inFlight());
+        batchBytes = limiter.batchBytes();
+    }
+
+    private void enqueue(int lane) {
+        metrics.recordBatch(batches[lane]);
+        queued.add(batches[lane]);
+        batches[lane] = newBatch(lane);
+        pump(pausable ? Integer.MAX_VALUE : maxQueued);
+    }
+
+    private void pump() {
+        pump(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Hand queued batches, oldest first, to the writer as far as it has room
+     * for them. While TickTockDB is unhealthy, spool them instead, without
+     * sending them; the spool sends them once it is back. Batches of
+     * partitions that have batches in the spool wait for the spool to
+     * replay those first.
+     *
+     * @param keep max number of batches to leave queued; wait for the writer to get there
+     */
+    private void pump(int keep) {
+        replayed();
+        while (! queued.isEmpty()) {
+            TickTockDBBatch b = queued.peek();
+            if (spool != null && ! healthy) {
+                queued.poll();
+                if (! spool(b))
+                    throw new ConnectException("Spool for " + address + " is full");
+                // never sent, so the transport is not reading from it
+                b.release();
+            } else if (spool != null && spool.holds(b)) {
+                if (queued.size() <= keep)
+                    break;
+                // the spool may be waiting for us, see replay()
+                if (! spool.awaitRelease(b, 100))
+                    throw new ConnectException("Spool for " + address + " is closed");
+                replayed();
+            } else if (writer.canSend(b)) {
+                // unless halves of a rejected batch just got ahead of it
+                if (queued.peek() == b)
+                    writer.send(queued.poll());
+            } else if (queued.size() > keep) {
+                writer.await();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private TickTockDBBatch newBatch(int lane) {
+        TickTockDBBatch b = new TickTockDBBatch(arena, reporter != null);
+        b.lane(lane);
+        return b;
+    }
+
+    private static class Replayed {
+        final TickTockDBBatch batch;
+        final long acked;               // ms, if accepted
+        final ConnectException error;   // null if accepted
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean handled;
+
+        Replayed(TickTockDBBatch batch, long acked, ConnectException error) {
+            this.batch = batch;
+            this.acked = acked;
+            this.error = error;
+        }
+
+        /**
+         * @param handled whether the batch is taken care of, or should stay in the spool
+         */
+        void handled(boolean handled) {
+            this.handled = handled;
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            done.await();
+            return handled;
+        }
+    }
+}
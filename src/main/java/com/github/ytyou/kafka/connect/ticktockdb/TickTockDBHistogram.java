@@ -0,0 +1,120 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TickTockDBHistogram records a distribution of non-negative values, such as
+ * latencies, from any number of threads without locking: recording a value
+ * is one atomic increment of the bucket it falls into.
+ *
+ * Buckets are log-linear, 8 per power of 2, so a percentile is reported
+ * with an error of at most 12.5%. Values are counted in two alternating
+ * windows; percentiles cover the current and the previous window, so they
+ * reflect the last one to two windowMs.
+ */
+class TickTockDBHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+    private final long windowMs;
+    private final AtomicLongArray[] windows = { new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS) };
+    private volatile int current = 0;
+    private volatile long started;
+
+    TickTockDBHistogram(long windowMs) {
+        this.windowMs = windowMs;
+        this.started = System.currentTimeMillis();
+    }
+
+    void record(long value) {
+        rotate(System.currentTimeMillis());
+        windows[current].getAndIncrement(bucket(Math.max(value, 0)));
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the value at the quantile, or NaN if nothing was recorded lately
+     */
+    double percentile(double quantile) {
+        rotate(System.currentTimeMillis());
+
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray window : windows) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = window.get(i);
+                counts[i] += n;
+                total += n;
+            }
+        }
+        if (total == 0)
+            return Double.NaN;
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1))
+                return (lowest(i) + highest(i)) / 2.0;
+        }
+        return highest(BUCKETS - 1);
+    }
+
+    private void rotate(long now) {
+        long start = started;
+        if (now - start < windowMs)
+            return;
+        synchronized (this) {
+            // only one thread rotates; recorders carry on meanwhile
+            if (started != start)
+                return;
+            int next = 1 - current;
+            boolean stale = now - start >= 2 * windowMs;   // nothing recorded lately is left
+            for (int i = 0; i < BUCKETS; i++) {
+                windows[next].set(i, 0);
+                if (stale)
+                    windows[current].set(i, 0);
+            }
+            current = next;
+            started = stale ? now : start + windowMs;
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    static long lowest(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    static long highest(int bucket) {
+        return (bucket + 1 < BUCKETS) ? lowest(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+}
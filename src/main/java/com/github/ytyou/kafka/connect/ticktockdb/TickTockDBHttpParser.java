@@ -0,0 +1,594 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * TickTockDBHttpParser is the HTTP/1.1 side of one connection to the source's
+ * HTTP port. It accepts the same writes as TickTockDB does:
+ *
+ *   POST /api/write   line protocol, one data point per line
+ *   POST /api/put     OpenTSDB JSON, one data point or an array of them
+ *
+ * Requests are parsed incrementally, as bytes arrive. Bodies may be sent
+ * with a Content-Length or chunked, and may be gzip or deflate encoded; they
+ * are decoded and split into data points on the fly, so a body is never held
+ * in memory as a whole. Line protocol lines are passed on as they are, JSON
+ * data points as OpenTSDB "put" lines.
+ *
+ * Connections are kept alive, and pipelined requests are answered in order.
+ * On a malformed request the parser answers with an error and closes.
+ */
+class TickTockDBHttpParser {
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final int MAX_LINE_SIZE = 1024 * 1024;
+
+    private enum State { REQUEST_LINE, HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, CLOSED }
+
+    private final Consumer<String> lines;
+    private final ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    private State state = State.REQUEST_LINE;
+
+    private byte[] line = new byte[256];    // request, header or chunk size line being read
+    private int lineLength = 0;
+
+    // current request
+    private String method;
+    private String path;
+    private boolean keepAlive;
+    private boolean chunked;
+    private long contentLength;
+    private String encoding;
+    private String connection;
+    private boolean expectContinue;
+    private int headers;
+    private long remaining;          // bytes left in body or chunk
+    private Body body;
+    private int failed = 0;         // data points that failed since takeFailed()
+
+    /**
+     * @param lines receives every data point of every request
+     */
+    TickTockDBHttpParser(Consumer<String> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Parse all the bytes in the buffer.
+     */
+    void parse(ByteBuffer in) {
+        while (in.hasRemaining() && state != State.CLOSED) {
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA:
+                    int n = (int) Math.min(remaining, in.remaining());
+                    if (! body.write(in, n)) {
+                        fail(400, "Bad Request");
+                        return;
+                    }
+                    remaining -= n;
+                    if (remaining == 0) {
+                        if (state == State.BODY)
+                            complete();
+                        else
+                            state = State.CHUNK_END;
+                    }
+                    break;
+
+                default:
+                    if (! readLine(in))
+                        return;
+                    String text = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+                    lineLength = 0;
+                    line(text);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return true once the connection should be closed, after the responses
+     */
+    boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * @return responses to send since the last call, or null if there are none
+     */
+    ByteBuffer responses() {
+        if (responses.size() == 0)
+            return null;
+        ByteBuffer buffer = ByteBuffer.wrap(responses.toByteArray());
+        responses.reset();
+        return buffer;
+    }
+
+    /**
+     * Read up to and including the next '\n', dropping the line break.
+     *
+     * @return false if the line is not complete yet
+     */
+    private boolean readLine(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r')
+                    lineLength--;
+                return true;
+            }
+            if (lineLength == line.length) {
+                if (lineLength >= MAX_HEADER_LINE) {
+                    fail(431, "Request Header Fields Too Large");
+                    return false;
+                }
+                byte[] bigger = new byte[Math.min(line.length * 2, MAX_HEADER_LINE)];
+                System.arraycopy(line, 0, bigger, 0, lineLength);
+                line = bigger;
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private void line(String text) {
+        switch (state) {
+            case REQUEST_LINE:
+                if (! text.isEmpty())
+                    requestLine(text);
+                break;
+
+            case HEADER:
+                if (text.isEmpty())
+                    headersDone();
+                else
+                    header(text);
+                break;
+
+            case CHUNK_SIZE:
+                int semicolon = text.indexOf(';');
+                try {
+                    remaining = Long.parseLong((semicolon < 0 ? text : text.substring(0, semicolon)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    remaining = -1;
+                }
+                if (remaining < 0)
+                    fail(400, "Bad Request");
+                else
+                    state = (remaining == 0) ? State.TRAILER : State.CHUNK_DATA;
+                break;
+
+            case CHUNK_END:
+                if (text.isEmpty())
+                    state = State.CHUNK_SIZE;
+                else
+                    fail(400, "Bad Request");
+                break;
+
+            case TRAILER:
+                if (text.isEmpty())
+                    complete();
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void requestLine(String text) {
+        String[] parts = text.split(" ");
+        if (parts.length != 3 || ! parts[2].startsWith("HTTP/1.")) {
+            fail(400, "Bad Request");
+            return;
+        }
+
+        method = parts[0];
+        int query = parts[1].indexOf('?');
+        path = (query < 0) ? parts[1] : parts[1].substring(0, query);
+        keepAlive = ! parts[2].equals("HTTP/1.0");
+        chunked = false;
+        contentLength = 0;
+        encoding = null;
+        connection = null;
+        expectContinue = false;
+        headers = 0;
+        state = State.HEADER;
+    }
+
+    private void header(String text) {
+        if (++headers > MAX_HEADERS) {
+            fail(431, "Request Header Fields Too Large");
+            return;
+        }
+        int colon = text.indexOf(':');
+        if (colon <= 0) {
+            fail(400, "Bad Request");
+            return;
+        }
+
+        String name = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String value = text.substring(colon + 1).trim();
+
+        switch (name) {
+            case "content-length":
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+                if (contentLength < 0)
+                    fail(400, "Bad Request");
+                break;
+            case "transfer-encoding":
+                chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                break;
+            case "content-encoding":
+                encoding = value.toLowerCase(Locale.ROOT);
+                break;
+            case "connection":
+                connection = value.toLowerCase(Locale.ROOT);
+                break;
+            case "expect":
+                expectContinue = value.equalsIgnoreCase("100-continue");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void headersDone() {
+        if (connection != null)
+            keepAlive = keepAlive ? ! connection.contains("close") : connection.contains("keep-alive");
+
+        Content content;
+        if (path.equals("/api/write"))
+            content = new LineContent();
+        else if (path.equals("/api/put"))
+            content = new TickTockDBJsonPoints(lines, MAX_LINE_SIZE);
+        else {
+            fail(404, "Not Found");
+            return;
+        }
+        if (! method.equals("POST")) {
+            fail(405, "Method Not Allowed");
+            return;
+        }
+
+        if (encoding == null || encoding.equals("identity"))
+            body = new Body(content, null, false);
+        else if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+            body = new Body(content, new Inflater(true), true);
+        else if (encoding.equals("deflate"))
+            body = new Body(content, new Inflater(), false);
+        else {
+            fail(415, "Unsupported Media Type");
+            return;
+        }
+
+        if (expectContinue)
+            write("HTTP/1.1 100 Continue\r\n\r\n");
+
+        if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            remaining = contentLength;
+            state = State.BODY;
+        } else {
+            complete();
+        }
+    }
+
+    private void complete() {
+        Content content = body.finish();
+        body = null;
+
+        if (content == null) {
+            fail(400, "Bad Request");
+            return;
+        }
+
+        failed += content.failed();
+        if (content.failed() == 0) {
+            write("HTTP/1.1 204 No Content\r\n" + (keepAlive ? "" : "Connection: close\r\n") + "\r\n");
+        } else {
+            String json = "{\"success\":" + content.success() + ",\"failed\":" + content.failed() + "}";
+            write("HTTP/1.1 400 Bad Request\r\nContent-Type: application/json\r\nContent-Length: " + json.length() + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n" + json);
+        }
+
+        state = keepAlive ? State.REQUEST_LINE : State.CLOSED;
+    }
+
+    /**
+     * @return number of data points that could not be read since the last call
+     */
+    int takeFailed() {
+        int n = failed;
+        failed = 0;
+        return n;
+    }
+
+    private void fail(int status, String reason) {
+        if (body != null) {
+            body.close();
+            body = null;
+        }
+        write("HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+        state = State.CLOSED;
+    }
+
+    private void write(String response) {
+        byte[] bytes = response.getBytes(StandardCharsets.ISO_8859_1);
+        responses.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * What a request body is made of, fed as it is decoded.
+     */
+    interface Content {
+        /**
+         * @return false if the content is malformed
+         */
+        boolean write(byte[] bytes, int offset, int length);
+
+        /**
+         * @return false if the content ended in the middle of something
+         */
+        boolean finish();
+
+        int success();
+
+        int failed();
+    }
+
+    /**
+     * Line protocol: one data point per line.
+     */
+    private class LineContent implements Content {
+        private byte[] partial = new byte[256];
+        private int length = 0;
+        private boolean discarding = false;
+        private int success = 0;
+
+        @Override
+        public boolean write(byte[] bytes, int offset, int len) {
+            int start = offset;
+            int end = offset + len;
+
+            for (int i = offset; i < end; i++) {
+                if (bytes[i] != '\n')
+                    continue;
+                append(bytes, start, i - start);
+                emit();
+                start = i + 1;
+            }
+            append(bytes, start, end - start);
+            return true;
+        }
+
+        @Override
+        public boolean finish() {
+            emit();     // the last line need not end with a newline
+            return true;
+        }
+
+        @Override
+        public int success() {
+            return success;
+        }
+
+        @Override
+        public int failed() {
+            return 0;
+        }
+
+        private void append(byte[] bytes, int offset, int len) {
+            if (discarding || len == 0)
+                return;
+            if (length + len > MAX_LINE_SIZE) {
+                discarding = true;
+                length = 0;
+                return;
+            }
+            if (length + len > partial.length) {
+                byte[] bigger = new byte[Math.min(Math.max(partial.length * 2, length + len), MAX_LINE_SIZE)];
+                System.arraycopy(partial, 0, bigger, 0, length);
+                partial = bigger;
+            }
+            System.arraycopy(bytes, offset, partial, length, len);
+            length += len;
+        }
+
+        private void emit() {
+            int end = length;
+            while (end > 0 && (partial[end - 1] == '\r' || partial[end - 1] == ' '))
+                end--;
+            if (! discarding && end > 0) {
+                lines.accept(new String(partial, 0, end, StandardCharsets.UTF_8));
+                success++;
+            }
+            discarding = false;
+            length = 0;
+        }
+    }
+
+    /**
+     * Undoes the Content-Encoding of a body, if any, on its way to the Content.
+     */
+    private static class Body {
+        private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+        private static final int GZ_FIXED = 0, GZ_NEXT = 1, GZ_XLEN = 2, GZ_EXTRA = 3, GZ_STRING = 4, GZ_HCRC = 5, GZ_DONE = 6;
+
+        private final Content content;
+        private final Inflater inflater;        // null if not encoded
+        private final byte[] input = new byte[8192];
+        private final byte[] output;
+        private boolean ok = true;
+
+        // gzip header
+        private int gzState;
+        private int gzCount = 0;
+        private int gzFlags = 0;
+        private int gzXlen = 0;
+
+        Body(Content content, Inflater inflater, boolean gzip) {
+            this.content = content;
+            this.inflater = inflater;
+            this.output = (inflater == null) ? null : new byte[32768];
+            this.gzState = gzip ? GZ_FIXED : GZ_DONE;
+        }
+
+        /**
+         * Take n bytes from the buffer.
+         *
+         * @return false if the body is malformed
+         */
+        boolean write(ByteBuffer in, int n) {
+            while (n > 0) {
+                int len = Math.min(n, input.length);
+                in.get(input, 0, len);
+                n -= len;
+                if (ok)
+                    ok = decode(len);
+            }
+            return ok;
+        }
+
+        /**
+         * @return the content, or null if the body was malformed
+         */
+        Content finish() {
+            boolean complete = ok && (inflater == null || inflater.finished());
+            close();
+            return (content.finish() && complete) ? content : null;
+        }
+
+        void close() {
+            if (inflater != null)
+                inflater.end();
+        }
+
+        private boolean decode(int len) {
+            if (inflater == null)
+                return content.write(input, 0, len);
+
+            int off = 0;
+            if (gzState != GZ_DONE) {
+                off = gzipHeader(len);
+                if (off < 0)
+                    return false;
+            }
+            if (off == len || inflater.finished())
+                return true;    // whatever follows the deflate stream is the gzip trailer
+
+            inflater.setInput(input, off, len - off);
+            try {
+                while (! inflater.finished() && ! inflater.needsInput()) {
+                    int n = inflater.inflate(output);
+                    if (n > 0) {
+                        if (! content.write(output, 0, n))
+                            return false;
+                    } else if (inflater.needsDictionary()) {
+                        return false;
+                    }
+                }
+            } catch (DataFormatException e) {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Skip the gzip header.
+         *
+         * @return where the deflate data starts in input, or -1 if this is not gzip
+         */
+        private int gzipHeader(int len) {
+            int i = 0;
+            while (gzState != GZ_DONE) {
+                if (gzState == GZ_NEXT) {
+                    gzState = nextField();
+                    continue;
+                }
+                if (i == len)
+                    break;
+                int c = input[i++] & 0xFF;
+                switch (gzState) {
+                    case GZ_FIXED:
+                        if ((gzCount == 0 && c != 0x1F) || (gzCount == 1 && c != 0x8B) || (gzCount == 2 && c != 8))
+                            return -1;
+                        if (gzCount == 3)
+                            gzFlags = c;
+                        if (++gzCount == 10)
+                            gzState = GZ_NEXT;
+                        break;
+                    case GZ_XLEN:
+                        gzXlen |= c << (8 * gzCount);
+                        if (++gzCount == 2)
+                            gzState = (gzXlen == 0) ? GZ_NEXT : GZ_EXTRA;
+                        break;
+                    case GZ_EXTRA:
+                        if (--gzXlen == 0)
+                            gzState = GZ_NEXT;
+                        break;
+                    case GZ_STRING:
+                        if (c == 0)
+                            gzState = GZ_NEXT;
+                        break;
+                    case GZ_HCRC:
+                        if (++gzCount == 2)
+                            gzState = GZ_NEXT;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return i;
+        }
+
+        private int nextField() {
+            gzCount = 0;
+            if ((gzFlags & FEXTRA) != 0) {
+                gzFlags &= ~FEXTRA;
+                gzXlen = 0;
+                return GZ_XLEN;
+            }
+            if ((gzFlags & FNAME) != 0) {
+                gzFlags &= ~FNAME;
+                return GZ_STRING;
+            }
+            if ((gzFlags & FCOMMENT) != 0) {
+                gzFlags &= ~FCOMMENT;
+                return GZ_STRING;
+            }
+            if ((gzFlags & FHCRC) != 0) {
+                gzFlags &= ~FHCRC;
+                return GZ_HCRC;
+            }
+            return GZ_DONE;
+        }
+    }
+}
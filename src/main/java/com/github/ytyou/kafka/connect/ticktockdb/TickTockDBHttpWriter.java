@@ -0,0 +1,293 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.errors.ConnectException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * TickTockDBHttpWriter sends batches to /api/write with HttpClient.sendAsync().
+ *
+ * The request body is streamed straight from the batch's direct chunks, see
+ * Body, so it is neither copied nor encoded on the way out.
+ *
+ * If compression is enabled, batches of at least minCompressBytes are
+ * compressed from the batch's chunks into chunks of the same arena, which
+ * go back to it once TickTockDB responds, and sent with a matching
+ * Content-Encoding header.
+ *
+ * Probes GET /api/version, once per connection to open; HttpClient keeps
+ * the connections open, and reuses them for the batches that follow.
+ */
+class TickTockDBHttpWriter extends TickTockDBWriter {
+    private static final Logger log = LoggerFactory.getLogger(TickTockDBHttpWriter.class);
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final URI uri;
+    private final URI versionUri;
+    private final HttpClient client;
+    private final TickTockDBArena arena;
+    private final String compression;   // none, gzip or deflate
+    private final int compressionLevel;
+    private final int minCompressBytes;
+    private final Duration timeout;
+
+    // batches are compressed by the task thread and the spool's, one at a time each
+    private final AtomicReference<Deflater> idleDeflater = new AtomicReference<>();
+
+    TickTockDBHttpWriter(String ticktockdb, TickTockDBArena arena, String compression, int compressionLevel,
+                         int minCompressBytes, long timeoutMs, int maxInFlight, Listener listener) {
+        super(ticktockdb, maxInFlight, listener);
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.arena = arena;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        this.minCompressBytes = minCompressBytes;
+        this.uri = URI.create("http://" + ticktockdb + "/api/write");
+        this.versionUri = URI.create("http://" + ticktockdb + "/api/version");
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    }
+
+    @Override
+    protected CompletableFuture<String> probe(int connections, long timeoutMs) {
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(versionUri)
+            .timeout(Duration.ofMillis(timeoutMs))
+            .GET()
+            .build();
+
+        // concurrent requests, so that each gets a connection of its own
+        List<CompletableFuture<String>> probes = new ArrayList<>();
+        for (int i = 0; i < Math.max(connections, 1); i++) {
+            probes.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    // anything but a server error means it is up, even if it has no version to tell
+                    if (response.statusCode() >= 500)
+                        throw new CompletionException(new ConnectException(ticktockdb + " is not well, status = " + response.statusCode()));
+                    return (response.statusCode() == 200) ? response.body().trim() : "unknown";
+                }));
+        }
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0]))
+            .thenApply(done -> probes.get(0).join());
+    }
+
+    @Override
+    protected CompletableFuture<?> write(TickTockDBBatch batch) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+            .uri(uri)
+            .timeout(timeout)
+            .header("Content-Type", "text/plain");
+
+        TickTockDBBatch compressed = null;
+        if (TickTockDBSinkConnector.COMPRESSION_NONE.equals(compression) || batch.size() < minCompressBytes) {
+            builder.POST(new Body(batch));
+        } else {
+            compressed = compress(batch);
+            builder.header("Content-Encoding", compression)
+                .POST(new Body(compressed));
+        }
+
+        HttpRequest request = builder.build();
+        TickTockDBBatch body = compressed;
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .thenApply(response -> {
+                // TickTockDB has read the whole request by now
+                if (body != null)
+                    body.release();
+                int status = response.statusCode();
+                if (status == 400 || status == 413) {
+                    log.debug("{} rejected {} records: {}", ticktockdb, batch.count(), response.body());
+                    throw new CompletionException(new Rejected(ticktockdb + " rejected the records, status = " + status + ": " + response.body()));
+                }
+                if (status != 200) {
+                    log.error("Failed to send {} records to {}: {}", batch.count(), ticktockdb, response.body());
+                    throw new CompletionException(new ConnectException("Failed to send to " + ticktockdb + ", status = " + status));
+                }
+                return response;
+            });
+    }
+
+    private TickTockDBBatch compress(TickTockDBBatch batch) {
+        boolean gzip = TickTockDBSinkConnector.COMPRESSION_GZIP.equals(compression);
+        TickTockDBBatch body = new TickTockDBBatch(arena);
+        CRC32 crc = gzip ? new CRC32() : null;
+        Deflater deflater = deflater(gzip);
+
+        try {
+            if (gzip) {
+                body.tail().put(GZIP_HEADER);   // a fresh chunk always has room for it
+                body.wrote(GZIP_HEADER.length);
+            }
+
+            for (ByteBuffer chunk : batch.content()) {
+                if (crc != null) {
+                    chunk.mark();
+                    crc.update(chunk);
+                    chunk.reset();
+                }
+                deflater.setInput(chunk);
+                while (! deflater.needsInput())
+                    deflate(deflater, body);
+            }
+            deflater.finish();
+            while (! deflater.finished())
+                deflate(deflater, body);
+        } finally {
+            recycle(deflater);
+        }
+
+        if (gzip) {
+            putInt(body, (int) crc.getValue());
+            putInt(body, batch.size());
+        }
+        return body;
+    }
+
+    private static void deflate(Deflater deflater, TickTockDBBatch body) {
+        ByteBuffer out = body.tail();
+        int before = out.position();
+        deflater.deflate(out);
+        body.wrote(out.position() - before);
+    }
+
+    // little endian, as gzip wants it
+    private static void putInt(TickTockDBBatch body, int value) {
+        for (int i = 0; i < 4; i++) {
+            body.tail().put((byte) (value >>> (8 * i)));
+            body.wrote(1);
+        }
+    }
+
+    private Deflater deflater(boolean gzip) {
+        Deflater deflater = idleDeflater.getAndSet(null);
+        return (deflater != null) ? deflater : new Deflater(compressionLevel, gzip);
+    }
+
+    private void recycle(Deflater deflater) {
+        deflater.reset();
+        if (! idleDeflater.compareAndSet(null, deflater))
+            deflater.end();
+    }
+
+    @Override
+    protected void shutdown() {
+        // HttpClient releases its connections once it is no longer referenced.
+        Deflater deflater = idleDeflater.getAndSet(null);
+        if (deflater != null)
+            deflater.end();
+    }
+
+    /**
+     * Publishes the chunks of a batch, one ByteBuffer each, as HttpClient
+     * asks for them. Every subscriber, e.g. after a redirect, gets its own
+     * views of the chunks, from the start.
+     */
+    private static class Body implements HttpRequest.BodyPublisher {
+        private final ByteBuffer[] content;
+        private final long length;
+
+        Body(TickTockDBBatch batch) {
+            this.content = batch.content();
+            this.length = batch.size();
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Subscription(subscriber, content));
+        }
+    }
+
+    private static class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final ByteBuffer[] content;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();     // calls to emit() in progress
+        private int next = 0;
+        private volatile boolean done = false;
+
+        Subscription(Flow.Subscriber<? super ByteBuffer> subscriber, ByteBuffer[] content) {
+            this.subscriber = subscriber;
+            this.content = content;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " items"));
+                return;
+            }
+            demand.getAndAccumulate(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+            emit();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        /**
+         * Hand out as many chunks as requested. onNext() may request more
+         * from within, or another thread may, so only one caller at a time
+         * emits, and it keeps going until nobody else wanted to.
+         */
+        private void emit() {
+            if (pending.getAndIncrement() != 0)
+                return;
+            do {
+                while (! done && next < content.length && demand.get() > 0) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(content[next++].duplicate());
+                }
+                if (! done && next == content.length) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+            } while (pending.decrementAndGet() != 0);
+        }
+    }
+}
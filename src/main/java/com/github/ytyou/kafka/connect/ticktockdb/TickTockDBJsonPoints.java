@@ -0,0 +1,442 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * TickTockDBJsonPoints reads the body of an OpenTSDB /api/put request, either
+ * one data point or an array of them:
+ *
+ *   [{"metric":"cpu","timestamp":1700000000,"value":1.5,"tags":{"host":"a"}}, ...]
+ *
+ * and turns every data point into a "put cpu 1700000000 1.5 host=a" line.
+ *
+ * The body is scanned as it arrives. Only the data point being read is
+ * buffered, so a large array costs no more memory than its largest element.
+ * Data points that are missing something, or that could not be written as a
+ * put line, are counted as failed; a body that is not JSON fails as a whole.
+ */
+class TickTockDBJsonPoints implements TickTockDBHttpParser.Content {
+    private static final Pattern TIMESTAMP = Pattern.compile("[0-9]+");
+    private static final Pattern VALUE = Pattern.compile("-?[0-9]+(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    private final Consumer<String> lines;
+    private final int maxPointSize;
+
+    private byte[] point = new byte[256];   // the data point being read
+    private int length = 0;
+    private int depth = 0;                  // of brackets and braces
+    private int pointDepth = -1;            // depth the data point started at, -1 if not in one
+    private boolean array = false;          // whether the body is an array
+    private boolean inString = false;
+    private boolean escape = false;
+    private boolean broken = false;
+    private int success = 0;
+    private int failed = 0;
+
+    TickTockDBJsonPoints(Consumer<String> lines, int maxPointSize) {
+        this.lines = lines;
+        this.maxPointSize = maxPointSize;
+    }
+
+    @Override
+    public boolean write(byte[] bytes, int offset, int len) {
+        for (int i = offset; i < offset + len && ! broken; i++) {
+            byte c = bytes[i];
+
+            if (pointDepth >= 0) {
+                if (length == point.length) {
+                    if (length >= maxPointSize) {
+                        broken = true;
+                        break;
+                    }
+                    byte[] bigger = new byte[Math.min(length * 2, maxPointSize)];
+                    System.arraycopy(point, 0, bigger, 0, length);
+                    point = bigger;
+                }
+                point[length++] = c;
+            }
+
+            if (inString) {
+                if (escape)
+                    escape = false;
+                else if (c == '\\')
+                    escape = true;
+                else if (c == '"')
+                    inString = false;
+                continue;
+            }
+
+            switch (c) {
+                case '"':
+                    if (pointDepth < 0)
+                        broken = true;
+                    inString = true;
+                    break;
+                case '{':
+                    if (pointDepth < 0) {
+                        if (depth != (array ? 1 : 0)) {
+                            broken = true;
+                            break;
+                        }
+                        pointDepth = depth;
+                        point[0] = c;
+                        length = 1;
+                    }
+                    depth++;
+                    break;
+                case '[':
+                    if (pointDepth < 0) {
+                        if (depth != 0 || array) {
+                            broken = true;
+                            break;
+                        }
+                        array = true;
+                    }
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (--depth < 0) {
+                        broken = true;
+                        break;
+                    }
+                    if (c == '}' && depth == pointDepth) {
+                        point();
+                        pointDepth = -1;
+                        length = 0;
+                    }
+                    break;
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                case ',':
+                    break;
+                default:
+                    if (pointDepth < 0)
+                        broken = true;
+                    break;
+            }
+        }
+        return ! broken;
+    }
+
+    @Override
+    public boolean finish() {
+        return ! broken && depth == 0 && pointDepth < 0;
+    }
+
+    @Override
+    public int success() {
+        return success;
+    }
+
+    @Override
+    public int failed() {
+        return failed;
+    }
+
+    private void point() {
+        Map<String, Object> fields;
+        try {
+            fields = new Reader(new String(point, 0, length, StandardCharsets.UTF_8)).object();
+        } catch (IllegalArgumentException e) {
+            failed++;
+            return;
+        }
+
+        String line = putLine(fields);
+        if (line == null) {
+            failed++;
+        } else {
+            lines.accept(line);
+            success++;
+        }
+    }
+
+    /**
+     * @return the data point as an OpenTSDB put line, or null if it is not valid
+     */
+    static String putLine(Map<String, Object> fields) {
+        Object metric = fields.get("metric");
+        Object timestamp = fields.get("timestamp");
+        Object value = fields.get("value");
+        Object tags = fields.get("tags");
+
+        if (! (metric instanceof String) || ! isToken((String) metric))
+            return null;
+        if (! isTimestamp(timestamp) || ! isValue(value))
+            return null;
+        if (tags != null && ! (tags instanceof Map))
+            return null;
+
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("put ").append(metric).append(' ').append(timestamp).append(' ').append(value);
+
+        if (tags != null) {
+            for (Map.Entry<?, ?> tag : ((Map<?, ?>) tags).entrySet()) {
+                String k = tag.getKey().toString();
+                Object v = tag.getValue();
+                if (v instanceof Map || v == null)
+                    return null;
+                if (! isToken(k) || ! isToken(v.toString()))
+                    return null;
+                sb.append(' ').append(k).append('=').append(v);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A timestamp, a number or a string, must be a whole number of seconds
+     * or milliseconds, written as digits only.
+     */
+    private static boolean isTimestamp(Object timestamp) {
+        if (! (timestamp instanceof Number || timestamp instanceof String))
+            return false;
+        return TIMESTAMP.matcher(timestamp.toString()).matches();
+    }
+
+    /**
+     * A value, a number or a string, must be a finite number in JSON
+     * notation; NaN, Infinity, hex and the like would not parse in TickTockDB.
+     */
+    private static boolean isValue(Object value) {
+        if (! (value instanceof Number || value instanceof String))
+            return false;
+        String text = value.toString();
+        return VALUE.matcher(text).matches() && Double.isFinite(Double.parseDouble(text));
+    }
+
+    /**
+     * A metric name, or tag key or value, must not break the put line apart.
+     */
+    private static boolean isToken(String s) {
+        if (s.isEmpty())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ' ' || c == '=' || c == '\t' || c == '\r' || c == '\n')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads one JSON object. Numbers are kept as their text, in a Number
+     * subclass, so they are written out exactly as they were sent.
+     */
+    private static class Reader {
+        private final String s;
+        private int i = 0;
+
+        Reader(String s) {
+            this.s = s;
+        }
+
+        Map<String, Object> object() {
+            skip();
+            expect('{');
+            Map<String, Object> map = new LinkedHashMap<>();
+            skip();
+            if (peek() == '}') {
+                i++;
+                return map;
+            }
+            while (true) {
+                skip();
+                String key = string();
+                skip();
+                expect(':');
+                map.put(key, value());
+                skip();
+                char c = next();
+                if (c == '}')
+                    return map;
+                if (c != ',')
+                    throw new IllegalArgumentException("Expected , or } at " + i);
+            }
+        }
+
+        private Object value() {
+            skip();
+            char c = peek();
+            switch (c) {
+                case '{':
+                    return object();
+                case '[':
+                    array();
+                    return Boolean.FALSE;   // no array is of use in a data point
+                case '"':
+                    return string();
+                case 't':
+                    literal("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    literal("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    literal("null");
+                    return null;
+                default:
+                    return number();
+            }
+        }
+
+        private void array() {
+            expect('[');
+            skip();
+            if (peek() == ']') {
+                i++;
+                return;
+            }
+            while (true) {
+                value();
+                skip();
+                char c = next();
+                if (c == ']')
+                    return;
+                if (c != ',')
+                    throw new IllegalArgumentException("Expected , or ] at " + i);
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = null;
+            int start = i;
+            while (true) {
+                char c = next();
+                if (c == '"')
+                    return (sb == null) ? s.substring(start, i - 1) : sb.toString();
+                if (c != '\\') {
+                    if (sb != null)
+                        sb.append(c);
+                    continue;
+                }
+                if (sb == null)
+                    sb = new StringBuilder(s.substring(start, i - 1));
+                c = next();
+                switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (i + 4 > s.length())
+                            throw new IllegalArgumentException("Bad escape at " + i);
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Bad escape at " + i);
+                        }
+                        i += 4;
+                        break;
+                    default: sb.append(c); break;
+                }
+            }
+        }
+
+        private Number number() {
+            int start = i;
+            while (i < s.length() && "+-0123456789.eE".indexOf(s.charAt(i)) >= 0)
+                i++;
+            String text = s.substring(start, i);
+            double d;
+            try {
+                d = Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number at " + start);
+            }
+            // e.g. 1e999
+            if (! Double.isFinite(d))
+                throw new IllegalArgumentException("Bad number at " + start);
+            return new JsonNumber(text);
+        }
+
+        private void literal(String word) {
+            if (! s.startsWith(word, i))
+                throw new IllegalArgumentException("Unexpected token at " + i);
+            i += word.length();
+        }
+
+        private void skip() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+                i++;
+        }
+
+        private char peek() {
+            if (i >= s.length())
+                throw new IllegalArgumentException("Unexpected end");
+            return s.charAt(i);
+        }
+
+        private char next() {
+            char c = peek();
+            i++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c)
+                throw new IllegalArgumentException("Expected " + c + " at " + (i - 1));
+        }
+    }
+
+    private static class JsonNumber extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+
+        JsonNumber(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(text);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+/**
+ * TickTockDBLimiter adapts how many batches an endpoint may have in flight,
+ * and how big they may get, to how TickTockDB is coping, with AIMD: both
+ * grow a little with every batch that comes back fast enough, and are halved
+ * when one comes back slow, or not at all.
+ *
+ * Fast enough means within tolerance times the baseline latency. The
+ * baseline follows the lowest latencies seen, and creeps up slowly when
+ * latency stays higher, so that a node that got slower for good is not
+ * throttled forever.
+ *
+ * Called by the task thread and the spool's, so it is synchronized.
+ */
+class TickTockDBLimiter {
+    private static final double BASELINE_DRIFT = 0.01;     // how fast the baseline follows higher latencies
+    private static final long BACKOFF_MS = 1000;            // no more than one decrease per this
+
+    private final int minInFlight;
+    private final int maxInFlight;
+    private final int minBatchBytes;
+    private final int maxBatchBytes;
+    private final double tolerance;
+
+    private double inFlight;
+    private double batchBytes;
+    private double baseline = Double.NaN;   // ms
+    private long decreased = 0;             // ms, when the limits were cut last
+
+    TickTockDBLimiter(int minInFlight, int maxInFlight, int minBatchBytes, int maxBatchBytes, double tolerance) {
+        this.minInFlight = minInFlight;
+        this.maxInFlight = Math.max(minInFlight, maxInFlight);
+        this.minBatchBytes = Math.min(minBatchBytes, maxBatchBytes);
+        this.maxBatchBytes = maxBatchBytes;
+        this.tolerance = tolerance;
+
+        // start low, and find out how much TickTockDB takes
+        this.inFlight = this.minInFlight;
+        this.batchBytes = this.minBatchBytes;
+    }
+
+    /**
+     * @return max number of batches to have in flight
+     */
+    synchronized int inFlight() {
+        return (int) inFlight;
+    }
+
+    /**
+     * @return size, in bytes, at which to send a batch
+     */
+    synchronized int batchBytes() {
+        return (int) batchBytes;
+    }
+
+    /**
+     * TickTockDB accepted a batch of this size after latencyMs.
+     */
+    synchronized void acked(long latencyMs, int bytes, long now) {
+        double latency = Math.max(latencyMs, 1);
+        if (Double.isNaN(baseline) || latency < baseline)
+            baseline = latency;
+        else
+            baseline += (latency - baseline) * BASELINE_DRIFT;
+
+        if (latency > baseline * tolerance) {
+            decrease(now);
+            return;
+        }
+
+        inFlight = Math.min(maxInFlight, inFlight + 1 / inFlight);
+        // a batch well under the limit says little about whether the limit is too small
+        if (bytes >= batchBytes / 2)
+            batchBytes = Math.min(maxBatchBytes, batchBytes + Math.max(batchBytes / 8, 1024));
+    }
+
+    /**
+     * TickTockDB did not accept a batch, or took too long.
+     */
+    synchronized void failed(long now) {
+        decrease(now);
+    }
+
+    private void decrease(long now) {
+        // batches in flight when we cut will report back slow as well
+        if (now - decreased < BACKOFF_MS)
+            return;
+        decreased = now;
+        inFlight = Math.max(minInFlight, inFlight / 2);
+        batchBytes = Math.max(minBatchBytes, batchBytes / 2);
+    }
+}
@@ -0,0 +1,390 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TickTockDBLineProtocol validates line protocol records byte by byte,
+ * without creating any objects:
+ *
+ *   measurement[,tag=value...] field=value[,field=value...] [timestamp]
+ *
+ * Field values must be numbers (float, or integer with an i or u suffix);
+ * TickTockDB does not support string or boolean fields. Commas, spaces and
+ * equal signs may be escaped with a backslash, and tag values may contain
+ * quotes.
+ *
+ * While validating, it also computes a hash of the series (measurement and
+ * tags) for TickTockDBRouter. Tag hashes are summed, so the result does not
+ * depend on the order they appear in, which is what hashing the sorted tags
+ * would give us, without having to sort. Field names and the timestamp are
+ * hashed the same way, for TickTockDBDedup to tell repeated data points apart.
+ *
+ * An instance keeps a scratch buffer for values that are not already a
+ * byte[], so it is not thread safe.
+ */
+class TickTockDBLineProtocol {
+    private static final long TAG_SEED = 0x5851F42D4C957F2DL;
+    private static final long FIELD_SEED = 0x14057B7EF767814FL;
+
+    private byte[] scratch = new byte[4096];
+
+    // the record value last passed to wrap()
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    // series hash of the line last passed to scan()
+    private long hash;
+    // hash of its series, field names and timestamp, 0 if it has no timestamp
+    private long pointHash;
+
+    /**
+     * Make the bytes of a record value available through bytes(), offset()
+     * and length(). Strings are UTF-8 encoded into the scratch buffer.
+     *
+     * @return false if the value is not a String, byte[] or ByteBuffer
+     */
+    boolean wrap(Object value) {
+        if (value instanceof byte[]) {
+            bytes = (byte[]) value;
+            offset = 0;
+            length = bytes.length;
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) value;
+            if (buffer.hasArray()) {
+                bytes = buffer.array();
+                offset = buffer.arrayOffset() + buffer.position();
+            } else {
+                ensureScratch(buffer.remaining());
+                buffer.get(buffer.position(), scratch, 0, buffer.remaining());
+                bytes = scratch;
+                offset = 0;
+            }
+            length = buffer.remaining();
+        } else if (value instanceof CharSequence) {
+            encode((CharSequence) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    int length() {
+        return length;
+    }
+
+    long seriesHash() {
+        return hash;
+    }
+
+    /**
+     * @return a hash of the series, field names and timestamp of the line
+     *         last passed to scan(), or 0 if it has no timestamp
+     */
+    long pointHash() {
+        return pointHash;
+    }
+
+    /**
+     * Validate the line in b[from, to), which must not contain a newline.
+     * On success, seriesHash() returns the hash of its series.
+     */
+    boolean scan(byte[] b, int from, int to) {
+        int i = from;
+
+        // measurement
+        long h = FNV_BASIS;
+        for (; i < to; i++) {
+            byte c = b[i];
+            if (c == '\\' && i + 1 < to) {
+                h = fnv(fnv(h, c), b[++i]);
+                continue;
+            }
+            if (c == ',' || c == ' ')
+                break;
+            h = fnv(h, c);
+        }
+        if (i == from || i == to)
+            return false;   // no measurement, or no fields
+        long measurement = mix(h);
+
+        // tags
+        long tags = 0;
+        while (b[i] == ',') {
+            int start = ++i;
+            int eq = -1;
+            h = FNV_BASIS;
+            for (; i < to; i++) {
+                byte c = b[i];
+                if (c == '\\' && i + 1 < to) {
+                    h = fnv(fnv(h, c), b[++i]);
+                    continue;
+                }
+                if (c == ',' || c == ' ')
+                    break;
+                if (c == '=') {
+                    if (eq >= 0)
+                        return false;
+                    eq = i;
+                }
+                h = fnv(h, c);
+            }
+            if (eq <= start || eq == i - 1 || i == to)
+                return false;   // empty key or value, or no fields
+            tags += mix(h ^ TAG_SEED);
+        }
+
+        while (i < to && b[i] == ' ')
+            i++;
+
+        // fields
+        long fields = 0;
+        for (;;) {
+            int start = i;
+            h = FNV_BASIS;
+            for (; i < to; i++) {
+                byte c = b[i];
+                if (c == '\\' && i + 1 < to) {
+                    h = fnv(fnv(h, c), b[++i]);
+                    continue;
+                }
+                if (c == '=' || c == ',' || c == ' ')
+                    break;
+                h = fnv(h, c);
+            }
+            if (i == start || i == to || b[i] != '=')
+                return false;   // empty or unterminated key
+            fields += mix(h ^ FIELD_SEED);
+            i = number(b, i + 1, to);
+            if (i < 0)
+                return false;
+            if (i < to && b[i] == ',') {
+                i++;
+                continue;
+            }
+            break;
+        }
+
+        // optional timestamp
+        while (i < to && b[i] == ' ')
+            i++;
+        boolean timed = i < to;
+        long timestamp = 0;
+        if (timed) {
+            boolean negative = b[i] == '-';
+            if (negative)
+                i++;
+            int start = i;
+            while (i < to && b[i] >= '0' && b[i] <= '9')
+                timestamp = timestamp * 10 + (b[i++] - '0');
+            if (i == start || i != to)
+                return false;
+            if (negative)
+                timestamp = -timestamp;
+        }
+
+        hash = mix(measurement + tags);
+        pointHash = timed ? mix(hash + mix(fields + timestamp)) | 1 : 0;
+        return true;
+    }
+
+    /**
+     * Tell whether two lines that passed scan() are the same data point:
+     * same measurement, tags and field names, in any order, and the same
+     * timestamp. Confirms that equal pointHash() values are not a collision.
+     */
+    static boolean samePoint(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int am = end(a, aFrom, aTo, ',', ' ');
+        int bm = end(b, bFrom, bTo, ',', ' ');
+        if (! Arrays.equals(a, aFrom, am, b, bFrom, bm))
+            return false;
+
+        int at = end(a, am, aTo, ' ', ' ');
+        int bt = end(b, bm, bTo, ' ', ' ');
+        if (! sameTokens(a, am, at, b, bm, bt, false))
+            return false;
+
+        int af = skipSpaces(a, at, aTo);
+        int bf = skipSpaces(b, bt, bTo);
+        int ae = end(a, af, aTo, ' ', ' ');
+        int be = end(b, bf, bTo, ' ', ' ');
+        if (! sameTokens(a, af, ae, b, bf, be, true))
+            return false;
+
+        return Arrays.equals(a, skipSpaces(a, ae, aTo), aTo, b, skipSpaces(b, be, bTo), bTo);
+    }
+
+    /**
+     * @return whether the comma separated tokens in a[aFrom, aTo) and b[bFrom, bTo)
+     *         are the same, in any order; only up to the equal sign if names
+     */
+    private static boolean sameTokens(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo, boolean names) {
+        return containsAll(b, bFrom, bTo, a, aFrom, aTo, names) && containsAll(a, aFrom, aTo, b, bFrom, bTo, names);
+    }
+
+    private static boolean containsAll(byte[] b, int bFrom, int bTo, byte[] a, int aFrom, int aTo, boolean names) {
+        for (int i = aFrom; i < aTo; i = end(a, i, aTo, ',', ',') + 1) {
+            if (a[i] == ',')
+                i++;
+            int e = names ? end(a, i, aTo, '=', '=') : end(a, i, aTo, ',', ',');
+            if (! contains(b, bFrom, bTo, a, i, e, names))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(byte[] b, int from, int to, byte[] token, int tFrom, int tTo, boolean names) {
+        for (int i = from; i < to; i = end(b, i, to, ',', ',') + 1) {
+            if (b[i] == ',')
+                i++;
+            int e = names ? end(b, i, to, '=', '=') : end(b, i, to, ',', ',');
+            if (Arrays.equals(b, i, e, token, tFrom, tTo))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the first unescaped c or d in b[i, to), or to if there is none
+     */
+    private static int end(byte[] b, int i, int to, char c, char d) {
+        for (; i < to; i++) {
+            if (b[i] == '\\')
+                i++;
+            else if (b[i] == c || b[i] == d)
+                return i;
+        }
+        return to;
+    }
+
+    private static int skipSpaces(byte[] b, int i, int to) {
+        while (i < to && b[i] == ' ')
+            i++;
+        return i;
+    }
+
+    /**
+     * Parse a numeric field value starting at b[i].
+     *
+     * @return the index just past the value, or -1 if it is not a number
+     */
+    private static int number(byte[] b, int i, int to) {
+        if (i < to && (b[i] == '-' || b[i] == '+'))
+            i++;
+
+        int digits = 0;
+        boolean integral = true;
+        while (i < to && b[i] >= '0' && b[i] <= '9') {
+            i++;
+            digits++;
+        }
+        if (i < to && b[i] == '.') {
+            integral = false;
+            i++;
+            while (i < to && b[i] >= '0' && b[i] <= '9') {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0)
+            return -1;
+        if (i < to && (b[i] == 'e' || b[i] == 'E')) {
+            integral = false;
+            i++;
+            if (i < to && (b[i] == '-' || b[i] == '+'))
+                i++;
+            int start = i;
+            while (i < to && b[i] >= '0' && b[i] <= '9')
+                i++;
+            if (i == start)
+                return -1;
+        }
+        if (integral && i < to && (b[i] == 'i' || b[i] == 'u'))
+            i++;
+        if (i < to && b[i] != ',' && b[i] != ' ')
+            return -1;
+        return i;
+    }
+
+    private void encode(CharSequence s) {
+        int len = s.length();
+        ensureScratch(len);
+        int n = 0;
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (n + 4 > scratch.length)
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            if (c < 0x80) {
+                scratch[n++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[n++] = (byte) (0xC0 | (c >> 6));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                scratch[n++] = (byte) (0xF0 | (cp >> 18));
+                scratch[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                scratch[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                scratch[n++] = '?';     // unpaired surrogate, like String.getBytes()
+            } else {
+                scratch[n++] = (byte) (0xE0 | (c >> 12));
+                scratch[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        bytes = scratch;
+        offset = 0;
+        length = n;
+    }
+
+    private void ensureScratch(int capacity) {
+        if (capacity > scratch.length)
+            scratch = new byte[Math.max(capacity, scratch.length * 2)];
+    }
+
+    private static final long FNV_BASIS = 0xCBF29CE484222325L;
+
+    // FNV-1a, one byte at a time
+    private static long fnv(long h, byte c) {
+        return (h ^ (c & 0xFF)) * 0x100000001B3L;
+    }
+
+    // final mix of MurmurHash3
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,455 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TickTockDBPointParser parses the lines the source receives, which are
+ * either OpenTSDB put lines or line protocol:
+ *
+ *   put cpu 1700000000 1.5 host=a dc=x
+ *   cpu,host=a,dc=x usage=1.5,idle=98 1700000000
+ *
+ * in one pass, without copying the line. It finds the timestamp of the data
+ * point, in ms, and the series key: the metric followed by the tags sorted
+ * by key, e.g. "cpu,dc=x,host=a", the same for both lines above.
+ *
+ * Series keys are cached in a bounded LRU, keyed by a hash of the metric and
+ * tags exactly as they appear in the line. A line of a cached series, with
+ * its tags in the same order as before, so costs a hash, a lookup and a
+ * comparison, but no sorting and no new strings.
+ *
+ * It can also turn the line into a Struct of STRUCT_SCHEMA, the same layout
+ * the sink reads structured values in by default.
+ *
+ * An instance keeps the positions of what it parsed, so it is not thread safe.
+ */
+class TickTockDBPointParser {
+    private static final int MAX_TAGS = 64;
+
+    static final Schema TAGS_SCHEMA = SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.STRING_SCHEMA).build();
+    static final Schema FIELDS_SCHEMA = SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.FLOAT64_SCHEMA).build();
+    static final Schema STRUCT_SCHEMA = SchemaBuilder.struct()
+        .name("com.github.ytyou.kafka.connect.ticktockdb.DataPoint")
+        .field("metric", Schema.STRING_SCHEMA)
+        .field("tags", TAGS_SCHEMA)
+        .field("timestamp", Schema.INT64_SCHEMA)
+        .field("fields", FIELDS_SCHEMA)
+        .build();
+
+    private final KeyCache cache;
+
+    private String line;
+    private boolean put;
+    private int metricStart, metricEnd;
+    private int tagsStart, tagsEnd;                 // all tags, as they appear in the line
+    private int tagCount;
+    private final int[] tagStart = new int[MAX_TAGS];
+    private final int[] tagEquals = new int[MAX_TAGS];
+    private final int[] tagEnd = new int[MAX_TAGS];
+    private int valuesStart, valuesEnd;             // the value of a put, or the fields of line protocol
+    private long timestamp;
+    private String key;
+
+    TickTockDBPointParser(int cacheSize) {
+        cache = new KeyCache(cacheSize);
+    }
+
+    /**
+     * @return false if the line is neither a put nor line protocol
+     */
+    boolean parse(String line) {
+        this.line = line;
+        this.key = null;
+        this.tagCount = 0;
+        this.timestamp = -1;
+
+        put = line.startsWith("put ");
+        boolean ok = put ? parsePut() : parseLineProtocol();
+        if (ok)
+            key = lookup();
+        return ok;
+    }
+
+    /**
+     * @return the series key of the line just parsed
+     */
+    String key() {
+        return key;
+    }
+
+    /**
+     * @return the timestamp, in ms, of the line just parsed, or -1 if it has none
+     */
+    long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return number of series keys currently cached
+     */
+    int cached() {
+        return cache.size();
+    }
+
+    private boolean parsePut() {
+        // put <metric> <timestamp> <value> <tagk=tagv> ...
+        int i = skipSpaces(4);
+        metricStart = i;
+        metricEnd = i = token(i);
+        if (metricEnd == metricStart)
+            return false;
+
+        int tsStart = skipSpaces(i);
+        int tsEnd = i = token(tsStart);
+        if (! timestamp(tsStart, tsEnd))
+            return false;
+
+        valuesStart = skipSpaces(i);
+        valuesEnd = i = token(valuesStart);
+        if (valuesEnd == valuesStart)
+            return false;
+
+        tagsStart = i = skipSpaces(i);
+        tagsEnd = tagsStart;
+        while (i < line.length()) {
+            int end = token(i);
+            int eq = line.indexOf('=', i);
+            if (eq <= i || eq >= end - 1 || ! tag(i, eq, end))
+                return false;
+            tagsEnd = end;
+            i = skipSpaces(end);
+        }
+        return true;
+    }
+
+    private boolean parseLineProtocol() {
+        // <measurement>[,<tagk>=<tagv>...] <fieldk>=<fieldv>[,...] [<timestamp>]
+        int n = line.length();
+        int i = 0;
+        metricStart = 0;
+        while (i < n && line.charAt(i) != ',' && line.charAt(i) != ' ')
+            i += (line.charAt(i) == '\\') ? 2 : 1;
+        metricEnd = Math.min(i, n);
+        if (metricEnd == 0 || i >= n)
+            return false;
+
+        tagsStart = tagsEnd = i;
+        while (i < n && line.charAt(i) == ',') {
+            int start = ++i;
+            int eq = -1;
+            while (i < n && line.charAt(i) != ',' && line.charAt(i) != ' ') {
+                if (line.charAt(i) == '=' && eq < 0)
+                    eq = i;
+                i += (line.charAt(i) == '\\') ? 2 : 1;
+            }
+            i = Math.min(i, n);
+            if (eq <= start || eq >= i - 1 || ! tag(start, eq, i))
+                return false;
+            tagsEnd = i;
+        }
+        if (tagsEnd > tagsStart)
+            tagsStart++;    // skip the first comma
+        if (i >= n)
+            return false;   // no fields
+
+        valuesStart = i = skipSpaces(i);
+        boolean quoted = false;
+        while (i < n && (quoted || line.charAt(i) != ' ')) {
+            char c = line.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == '"')
+                quoted = ! quoted;
+            i++;
+        }
+        valuesEnd = Math.min(i, n);
+        int eq = line.indexOf('=', valuesStart);
+        if (eq <= valuesStart || eq >= valuesEnd - 1)
+            return false;
+
+        i = skipSpaces(valuesEnd);
+        return i >= n || timestamp(i, token(i));
+    }
+
+    private boolean tag(int start, int eq, int end) {
+        if (tagCount == MAX_TAGS)
+            return false;
+        tagStart[tagCount] = start;
+        tagEquals[tagCount] = eq;
+        tagEnd[tagCount] = end;
+        tagCount++;
+        return true;
+    }
+
+    private boolean timestamp(int start, int end) {
+        if (start == end || end - start > 19)
+            return false;
+        long ts = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+            ts = ts * 10 + (c - '0');
+        }
+        if (ts < 0)
+            return false;   // overflow
+        timestamp = toMillis(ts);
+        return true;
+    }
+
+    /**
+     * Guess the unit of a timestamp from its magnitude: s, ms, us or ns.
+     */
+    static long toMillis(long ts) {
+        if (ts < 10_000_000_000L)
+            return ts * 1000;
+        if (ts < 10_000_000_000_000L)
+            return ts;
+        if (ts < 10_000_000_000_000_000L)
+            return ts / 1000;
+        return ts / 1_000_000;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < line.length() && line.charAt(i) == ' ')
+            i++;
+        return i;
+    }
+
+    private int token(int i) {
+        while (i < line.length() && line.charAt(i) != ' ')
+            i++;
+        return i;
+    }
+
+    /**
+     * The line just parsed as a Struct. Strings come from the dictionary, and
+     * only numeric fields are kept; the value of a put becomes field "value".
+     *
+     * @param now the timestamp, in ms, to use if the line has none
+     * @return the Struct, or null if the line has no numeric field
+     */
+    Struct struct(TickTockDBDictionary dictionary, long now) {
+        Map<String, Double> fields = new HashMap<>(4);
+        if (fields(dictionary, false, fields::put) == 0)
+            return null;
+
+        return new Struct(STRUCT_SCHEMA)
+            .put("metric", metric(dictionary))
+            .put("tags", tags(dictionary))
+            .put("timestamp", (timestamp < 0) ? now : timestamp)
+            .put("fields", fields);
+    }
+
+    /**
+     * @return whether the line just parsed is a put, rather than line protocol
+     */
+    boolean isPut() {
+        return put;
+    }
+
+    String metric(TickTockDBDictionary dictionary) {
+        return text(dictionary, metricStart, metricEnd);
+    }
+
+    Map<String, String> tags(TickTockDBDictionary dictionary) {
+        Map<String, String> tags = new HashMap<>(tagCount * 2);
+        for (int i = 0; i < tagCount; i++)
+            tags.put(text(dictionary, tagStart[i], tagEquals[i]), text(dictionary, tagEquals[i] + 1, tagEnd[i]));
+        return tags;
+    }
+
+    interface FieldVisitor {
+        void field(String name, double value);
+    }
+
+    /**
+     * Visit the numeric fields of the line just parsed; the value of a put is
+     * field "value".
+     *
+     * @param escaped whether to keep line protocol escapes in field names
+     * @return number of fields visited
+     */
+    int fields(TickTockDBDictionary dictionary, boolean escaped, FieldVisitor visitor) {
+        if (put) {
+            double value = number(valuesStart, valuesEnd);
+            if (Double.isNaN(value))
+                return 0;
+            visitor.field("value", value);
+            return 1;
+        }
+
+        int count = 0;
+        int i = valuesStart;
+        while (i < valuesEnd) {
+            int start = i;
+            int eq = -1;
+            boolean quoted = false;
+            while (i < valuesEnd && (quoted || line.charAt(i) != ',')) {
+                char c = line.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"' && eq > 0) {
+                    quoted = ! quoted;
+                } else if (c == '=' && eq < 0) {
+                    eq = i;
+                }
+                i++;
+            }
+            int end = Math.min(i, valuesEnd);
+            i = end + 1;
+
+            if (eq <= start || eq + 1 >= end)
+                continue;
+            char first = line.charAt(eq + 1);
+            if (first == '"' || first == 't' || first == 'T' || first == 'f' || first == 'F')
+                continue;   // a string or a boolean
+            char last = line.charAt(end - 1);
+            double value = number(eq + 1, (last == 'i' || last == 'u') ? end - 1 : end);
+            if (Double.isNaN(value))
+                continue;
+            visitor.field(escaped ? dictionary.intern(line, start, eq) : text(dictionary, start, eq), value);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number, or NaN if it is not a finite number
+     */
+    private double number(int start, int end) {
+        if (start >= end)
+            return Double.NaN;
+        try {
+            double d = Double.parseDouble(line.substring(start, end));
+            return Double.isInfinite(d) ? Double.NaN : d;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return the interned text of a region of the line, without line protocol escapes
+     */
+    private String text(TickTockDBDictionary dictionary, int start, int end) {
+        int backslash = put ? -1 : line.indexOf('\\', start);
+        if (backslash < 0 || backslash >= end)
+            return dictionary.intern(line, start, end);
+
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < end)
+                c = line.charAt(++i);
+            sb.append(c);
+        }
+        return dictionary.intern(sb.toString());
+    }
+
+    private String lookup() {
+        long hash = 17;
+        for (int i = metricStart; i < metricEnd; i++)
+            hash = hash * 31 + line.charAt(i);
+        hash = hash * 31 + ' ';
+        for (int i = tagsStart; i < tagsEnd; i++)
+            hash = hash * 31 + line.charAt(i);
+        hash = TickTockDBLineProtocol.mix(hash);
+
+        Key cached = cache.get(hash);
+        if (cached != null && cached.matches(line, metricStart, metricEnd, tagsStart, tagsEnd))
+            return cached.key;
+
+        String key = canonical();
+        cache.put(hash, new Key(line.substring(metricStart, metricEnd), line.substring(tagsStart, tagsEnd), key));
+        return key;
+    }
+
+    /**
+     * @return the metric and the tags sorted by key
+     */
+    private String canonical() {
+        int[] order = new int[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            int j = i;
+            while (j > 0 && compareTagKeys(order[j - 1], i) > 0) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+
+        StringBuilder sb = new StringBuilder(metricEnd - metricStart + tagsEnd - tagsStart + 1);
+        sb.append(line, metricStart, metricEnd);
+        for (int t : order)
+            sb.append(',').append(line, tagStart[t], tagEnd[t]);
+        return sb.toString();
+    }
+
+    private int compareTagKeys(int a, int b) {
+        int i = tagStart[a], j = tagStart[b];
+        while (i < tagEquals[a] && j < tagEquals[b]) {
+            int d = line.charAt(i++) - line.charAt(j++);
+            if (d != 0)
+                return d;
+        }
+        return (tagEquals[a] - tagStart[a]) - (tagEquals[b] - tagStart[b]);
+    }
+
+    private static class Key {
+        final String metric;
+        final String tags;      // as they appeared in the line
+        final String key;
+
+        Key(String metric, String tags, String key) {
+            this.metric = metric;
+            this.tags = tags;
+            this.key = key;
+        }
+
+        boolean matches(String line, int metricStart, int metricEnd, int tagsStart, int tagsEnd) {
+            return metric.length() == metricEnd - metricStart
+                && tags.length() == tagsEnd - tagsStart
+                && line.regionMatches(metricStart, metric, 0, metric.length())
+                && line.regionMatches(tagsStart, tags, 0, tags.length());
+        }
+    }
+
+    private static class KeyCache extends LinkedHashMap<Long, Key> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        KeyCache(int capacity) {
+            super(16, 0.75f, true);     // access order, i.e. LRU
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Key> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * TickTockDBRingBuffer is a bounded, lock-free queue for many producers (the
+ * network threads) and one consumer (poll()).
+ *
+ * A producer claims a slot by advancing the tail, then publishes its element
+ * into the slot. The consumer takes elements in slot order and stops at the
+ * first slot that is claimed but not yet published. offer() never blocks: it
+ * returns false when the buffer is full, and it is up to the producer to
+ * stop reading until there is room again.
+ */
+class TickTockDBRingBuffer<E> {
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();   // next slot to claim
+    private final AtomicLong head = new AtomicLong();   // next slot to take, only advanced by the consumer
+    private volatile Thread waiter;
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    TickTockDBRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Called by any producer.
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() > mask)
+                return false;
+        } while (! tail.compareAndSet(t, t + 1));
+
+        slots.set((int) t & mask, element);     // a full fence, so a waiting consumer is seen below
+
+        Thread w = waiter;
+        if (w != null)
+            LockSupport.unpark(w);
+        return true;
+    }
+
+    /**
+     * Called by the consumer only. Take up to max elements, waiting up to
+     * maxWaitMs for the first one.
+     *
+     * @return number of elements taken
+     */
+    int drain(Consumer<E> consumer, int max, long maxWaitMs) {
+        int n = drain(consumer, max);
+        if (n > 0 || maxWaitMs <= 0)
+            return n;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        waiter = Thread.currentThread();
+        try {
+            while ((n = drain(consumer, max)) == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted())
+                    break;
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+        }
+        return n;
+    }
+
+    private int drain(Consumer<E> consumer, int max) {
+        long h = head.get();
+        int n = 0;
+
+        while (n < max) {
+            int index = (int) h & mask;
+            E element = slots.get(index);
+            if (element == null)
+                break;      // empty, or claimed but not published yet
+            slots.lazySet(index, null);
+            h++;
+            n++;
+            consumer.accept(element);
+        }
+
+        if (n > 0)
+            head.lazySet(h);
+        return n;
+    }
+
+    /**
+     * Wake up the consumer if it is waiting in drain().
+     */
+    void wakeup() {
+        Thread w = waiter;
+        if (w != null)
+            LockSupport.unpark(w);
+    }
+}
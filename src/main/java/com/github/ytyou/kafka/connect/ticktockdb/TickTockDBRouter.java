@@ -0,0 +1,75 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TickTockDBRouter maps series onto endpoints with a consistent hash ring,
+ * so that all points of a series go to the same TickTockDB node, and adding
+ * or removing a node only moves the series of that node.
+ */
+class TickTockDBRouter {
+    private static final int VIRTUAL_NODES = 128;   // per endpoint, to even out the load
+
+    private final long[] points;    // sorted positions on the ring
+    private final int[] owners;     // endpoint index of each position
+
+    TickTockDBRouter(List<String> endpoints) {
+        int n = endpoints.size() * VIRTUAL_NODES;
+        long[][] ring = new long[n][];
+
+        for (int e = 0; e < endpoints.size(); e++) {
+            long base = hash(endpoints.get(e), 0, endpoints.get(e).length());
+            for (int v = 0; v < VIRTUAL_NODES; v++)
+                ring[e * VIRTUAL_NODES + v] = new long[] { TickTockDBLineProtocol.mix(base + v * 0x9E3779B97F4A7C15L), e };
+        }
+
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[n];
+        owners = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    /**
+     * @param hash series hash, as computed by TickTockDBLineProtocol
+     * @return index of the endpoint owning the series
+     */
+    int route(long hash) {
+        if (owners.length == VIRTUAL_NODES)
+            return 0;   // only one endpoint
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0)
+            i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // FNV-1a
+    private static long hash(String s, int from, int to) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,467 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * TickTockDBServer accepts connections from collectors and reads lines from
+ * them, all on one thread driven by a non-blocking Selector. Optionally it
+ * also listens for HTTP writes on a second port; see TickTockDBHttpParser.
+ *
+ * Each connection has its own direct read buffer. A line is only handed over
+ * once its newline has arrived; the partial line at the end of a read stays
+ * in the buffer until the next read completes it, or the client closes the
+ * connection, which ends the last line as well.
+ *
+ * Lines go into a bounded ring buffer. When it is full, the connection stops
+ * being read, with the lines it could not hand over left in its buffer, so
+ * that TCP flow control slows down the sender. Paused connections resume
+ * once poll() has made room. An HTTP connection keeps the data points it
+ * decoded but could not hand over in a small backlog instead, since they no
+ * longer exist as raw bytes.
+ */
+class TickTockDBServer extends Thread {
+    private static final Logger log = LoggerFactory.getLogger(TickTockDBServer.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_SIZE = 1024 * 1024;
+
+    private static final byte[] VERSION = version();
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ServerSocketChannel http;     // null if not listening for HTTP
+    private final TickTockDBRingBuffer<String> lines;
+    private final int timeout;      // ms
+    private final List<SelectionKey> paused = new ArrayList<>();
+    private volatile boolean running = true;
+    private volatile boolean full = false;
+    private volatile int connections = 0;
+    private volatile long dropped = 0;      // lines too long, or data points that are not valid JSON
+    private volatile Exception failure;     // why the thread stopped, if not terminated
+
+    /**
+     * @param httpPort port to listen for HTTP on, or -1 for none
+     * @param lines where complete lines go
+     * @param timeout max time, in ms, to wait in select()
+     * @param reusePort whether other servers may listen on the same ports
+     */
+    TickTockDBServer(int port, int httpPort, int timeout, boolean reusePort, TickTockDBRingBuffer<String> lines) throws IOException {
+        super("ticktockdb-server-" + port);
+        setDaemon(true);
+        this.lines = lines;
+        this.timeout = timeout;
+        this.selector = Selector.open();
+        try {
+            server = listen(port, reusePort, Boolean.FALSE);
+            http = (httpPort < 0) ? null : listen(httpPort, reusePort, Boolean.TRUE);
+        } catch (IOException e) {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    private ServerSocketChannel listen(int port, boolean reusePort, Boolean isHttp) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort)
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_ACCEPT, isHttp);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    static boolean supportsReusePort() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException | LinkageError e) {
+            return false;
+        }
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the HTTP port, or -1 if not listening for HTTP
+     */
+    int httpPort() {
+        return (http == null) ? -1 : http.socket().getLocalPort();
+    }
+
+    int connections() {
+        return connections;
+    }
+
+    /**
+     * @return number of lines, or data points, that were dropped as invalid
+     */
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the error that stopped the server, or null if it is running, or was terminated
+     */
+    Exception failure() {
+        return failure;
+    }
+
+    /**
+     * Called after lines have been taken out of the ring buffer, so that
+     * paused connections are resumed without waiting for select() to time out.
+     */
+    void drained() {
+        if (full)
+            selector.wakeup();
+    }
+
+    void terminate() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(timeout);
+                if (full)
+                    resumeReading();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (! key.isValid())
+                        continue;
+                    try {
+                        if (key.isAcceptable())
+                            accept(key);
+                        if (key.isValid() && key.isReadable())
+                            read(key);
+                        if (key.isValid() && key.isWritable())
+                            write(key);
+                    } catch (IOException e) {
+                        close(key, e);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Network server on port {} stopped: {}", port(), e.toString());
+            failure = e;
+            lines.wakeup();     // so that poll() finds out
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignore) {
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        boolean isHttp = (Boolean) key.attachment();
+        SocketChannel channel;
+        while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(isHttp));
+            connections++;
+            log.debug("Accepted connection from {}", channel.getRemoteAddress());
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        int n = channel.read(conn.in);
+        if (n < 0) {
+            conn.eof = true;
+            if (conn.http == null && conn.in.position() > 0 && ! conn.discarding) {
+                // end the last line, which came without a newline
+                conn.in.put((byte) '\n');
+                if (! frame(key, conn))
+                    return;     // closed once it has been handed over
+            }
+            close(key, null);
+            return;
+        }
+        if (conn.http == null) {
+            frame(key, conn);
+            return;
+        }
+
+        conn.in.flip();
+        conn.http.parse(conn.in);
+        conn.in.clear();
+        int failed = conn.http.takeFailed();
+        if (failed > 0)
+            dropped += failed;     // only this thread writes it
+
+        ByteBuffer responses = conn.http.responses();
+        if (responses != null)
+            reply(key, conn, responses);
+        if (conn.http.isClosed())
+            conn.closing = true;
+        if (! conn.backlog.isEmpty())
+            pauseReading(key);
+        else if (conn.closing && conn.out == null)
+            close(key, null);
+    }
+
+    /**
+     * Hand over every complete line in the read buffer, and keep the rest.
+     *
+     * @return false if the ring buffer filled up, and the connection got paused
+     */
+    private boolean frame(SelectionKey key, Connection conn) throws IOException {
+        ByteBuffer in = conn.in;
+        in.flip();
+
+        int start = in.position();
+        boolean ok = true;
+        for (int i = start; i < in.limit(); i++) {
+            if (in.get(i) != '\n')
+                continue;
+            int end = i;
+            if (end > start && in.get(end - 1) == '\r')
+                end--;
+            if (conn.discarding)
+                conn.discarding = false;
+            else if (end > start && ! line(key, conn, decode(in, start, end))) {
+                ok = false;
+                break;
+            }
+            start = i + 1;
+        }
+
+        in.position(start);
+        in.compact();
+
+        if (! ok) {
+            pauseReading(key);
+            return false;
+        }
+
+        if (! in.hasRemaining()) {
+            // The buffer holds part of one line only.
+            if (in.capacity() < MAX_LINE_SIZE) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(Math.min(in.capacity() * 2, MAX_LINE_SIZE));
+                in.flip();
+                bigger.put(in);
+                conn.in = bigger;
+            } else {
+                log.warn("Dropping line longer than {} bytes", MAX_LINE_SIZE);
+                dropped++;
+                in.clear();
+                conn.discarding = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the ring buffer is full
+     */
+    private boolean line(SelectionKey key, Connection conn, String line) throws IOException {
+        if (line.equals("version")) {
+            reply(key, conn, ByteBuffer.wrap(VERSION));
+            return true;
+        }
+        return lines.offer(line);
+    }
+
+    /**
+     * Hand over a data point decoded from an HTTP request, or keep it in the
+     * connection's backlog if the ring buffer is full.
+     */
+    private void point(Connection conn, String line) {
+        if (! conn.backlog.isEmpty() || ! lines.offer(line))
+            conn.backlog.add(line);
+    }
+
+    /**
+     * @return false if the backlog could not be handed over completely
+     */
+    private boolean drainBacklog(Connection conn) {
+        String line;
+        while ((line = conn.backlog.peek()) != null) {
+            if (! lines.offer(line))
+                return false;
+            conn.backlog.poll();
+        }
+        return true;
+    }
+
+    private void pauseReading(SelectionKey key) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        paused.add(key);
+        full = true;
+    }
+
+    /**
+     * Hand over what paused connections still have buffered, and read from
+     * them again if that all fit.
+     */
+    private void resumeReading() {
+        full = false;
+        List<SelectionKey> keys = new ArrayList<>(paused);
+        paused.clear();
+
+        for (SelectionKey key : keys) {
+            Connection conn = (Connection) key.attachment();
+            if (full) {
+                paused.add(key);    // the ring buffer filled up again
+                continue;
+            }
+            if (conn.http != null) {
+                // An HTTP connection may have been closed with data points still in its backlog.
+                if (! drainBacklog(conn)) {
+                    paused.add(key);
+                    full = true;
+                } else if (key.isValid() && ! conn.closing) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                } else if (key.isValid() && conn.out == null) {
+                    close(key, null);
+                }
+                continue;
+            }
+            if (! key.isValid())
+                continue;
+            try {
+                if (! frame(key, conn))
+                    continue;
+                if (conn.eof)
+                    close(key, null);
+                else
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close(key, e);
+            }
+        }
+    }
+
+    /**
+     * Send the reply after whatever is still waiting to be sent.
+     */
+    private void reply(SelectionKey key, Connection conn, ByteBuffer reply) throws IOException {
+        if (conn.out == null) {
+            conn.out = reply;
+        } else {
+            ByteBuffer both = ByteBuffer.allocate(conn.out.remaining() + reply.remaining());
+            both.put(conn.out).put(reply).flip();
+            conn.out = both;
+        }
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection conn = (Connection) key.attachment();
+        if (conn.out == null)
+            return;
+        ((SocketChannel) key.channel()).write(conn.out);
+        if (conn.out.hasRemaining()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } else {
+            conn.out = null;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (conn.closing && conn.backlog.isEmpty())
+                close(key, null);
+        }
+    }
+
+    private void close(SelectionKey key, Exception e) {
+        if (! key.channel().isOpen())
+            return;
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignore) {
+        }
+        connections--;
+        if (e == null)
+            log.debug("Connection closed");
+        else
+            log.warn("Connection closed: {}", e.toString());
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(to);
+        slice.position(from);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The same reply DataOutputStream.writeUTF() used to send: a 2 byte length, then the text.
+    private static byte[] version() {
+        byte[] json = "{\"repo\":\"github.com/ytyou/ticktock.git\",\"version\":\"1.0.0\",\"branch\":\"main\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] reply = new byte[json.length + 2];
+        reply[0] = (byte) (json.length >>> 8);
+        reply[1] = (byte) json.length;
+        System.arraycopy(json, 0, reply, 2, json.length);
+        return reply;
+    }
+
+    private class Connection {
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer out;             // pending reply, if any
+        boolean discarding = false; // skipping the rest of a line that was too long
+        boolean closing = false;    // close once the reply is sent
+        boolean eof = false;        // the client closed its side
+        final TickTockDBHttpParser http;    // null for plain TCP connections
+        final ArrayDeque<String> backlog = new ArrayDeque<>();
+
+        Connection(boolean isHttp) {
+            http = isHttp ? new TickTockDBHttpParser(line -> point(this, line)) : null;
+        }
+    }
+}
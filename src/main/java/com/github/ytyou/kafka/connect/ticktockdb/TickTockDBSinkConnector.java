@@ -19,9 +19,11 @@ package com.github.ytyou.kafka.connect.ticktockdb;
 
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.Config;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigDef.Importance;
 import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigValue;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.sink.SinkConnector;
@@ -30,8 +32,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 /**
  * Very simple sink connector that works with stdout or a file.
@@ -40,8 +44,117 @@ public class TickTockDBSinkConnector extends SinkConnector {
 
     private static final Logger log = LoggerFactory.getLogger(TickTockDBSinkConnector.class);
     public static final String TICKTOCKDB_CONFIG = "ticktockdb";
+    public static final String BATCH_MAX_BYTES_CONFIG = "batch.max.bytes";
+    public static final String BATCH_MAX_RECORDS_CONFIG = "batch.max.records";
+    public static final String BATCH_LINGER_MS_CONFIG = "batch.linger.ms";
+    public static final String BATCH_DEDUP_CONFIG = "batch.dedup";
+    public static final String BUFFER_POOL_BYTES_CONFIG = "buffer.pool.bytes";
+    public static final String ADAPTIVE_CONCURRENCY_CONFIG = "adaptive.concurrency";
+    public static final String ADAPTIVE_MIN_IN_FLIGHT_CONFIG = "adaptive.min.in.flight";
+    public static final String ADAPTIVE_MIN_BATCH_BYTES_CONFIG = "adaptive.min.batch.bytes";
+    public static final String ADAPTIVE_LATENCY_TOLERANCE_CONFIG = "adaptive.latency.tolerance";
+    public static final String MAX_IN_FLIGHT_REQUESTS_CONFIG = "max.in.flight.requests";
+    public static final String MAX_QUEUED_BATCHES_CONFIG = "max.queued.batches";
+    public static final String TRANSPORT_CONFIG = "transport";
+    public static final String TCP_CONNECTIONS_CONFIG = "tcp.connections";
+    public static final String RECONNECT_ATTEMPTS_CONFIG = "reconnect.attempts";
+    public static final String RECONNECT_BACKOFF_MS_CONFIG = "reconnect.backoff.ms";
+
+    public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
+    public static final String COMPRESSION_LEVEL_CONFIG = "compression.level";
+    public static final String COMPRESSION_MIN_BYTES_CONFIG = "compression.min.bytes";
+
+    public static final String STRUCT_METRIC_FIELD_CONFIG = "struct.metric.field";
+    public static final String STRUCT_TAGS_FIELD_CONFIG = "struct.tags.field";
+    public static final String STRUCT_FIELDS_FIELD_CONFIG = "struct.fields.field";
+    public static final String STRUCT_TIMESTAMP_FIELD_CONFIG = "struct.timestamp.field";
+    public static final String STRUCT_PREFIX_CACHE_SIZE_CONFIG = "struct.prefix.cache.size";
+
+    public static final String REQUEST_TIMEOUT_MS_CONFIG = "request.timeout.ms";
+    public static final String WARMUP_CONNECTIONS_CONFIG = "warmup.connections";
+    public static final String PROBE_INTERVAL_MS_CONFIG = "probe.interval.ms";
+    public static final String PROBE_TIMEOUT_MS_CONFIG = "probe.timeout.ms";
+    public static final String SPOOL_DIR_CONFIG = "spool.dir";
+    public static final String SPOOL_SEGMENT_BYTES_CONFIG = "spool.segment.bytes";
+    public static final String SPOOL_MAX_BYTES_CONFIG = "spool.max.bytes";
+    public static final String SPOOL_FULL_ACTION_CONFIG = "spool.full.action";
+    public static final String SPOOL_RETRY_BACKOFF_MS_CONFIG = "spool.retry.backoff.ms";
+
+    // Set by taskConfigs(), not by users.
+    static final String TASK_INDEX_CONFIG = "task.index";
+
+    public static final String TRANSPORT_HTTP = "http";
+    public static final String TRANSPORT_TCP = "tcp";
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_GZIP = "gzip";
+    public static final String COMPRESSION_DEFLATE = "deflate";
+    public static final String SPOOL_FULL_FAIL = "fail";
+    public static final String SPOOL_FULL_BLOCK = "block";
+    public static final String SPOOL_FULL_DROP = "drop";
+
+    public static final int DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+    public static final int DEFAULT_BATCH_MAX_RECORDS = 10000;
+    public static final long DEFAULT_BATCH_LINGER_MS = 100;
+    public static final boolean DEFAULT_BATCH_DEDUP = false;
+    public static final long DEFAULT_BUFFER_POOL_BYTES = 32L * 1024 * 1024;
+    public static final boolean DEFAULT_ADAPTIVE_CONCURRENCY = false;
+    public static final int DEFAULT_ADAPTIVE_MIN_IN_FLIGHT = 1;
+    public static final int DEFAULT_ADAPTIVE_MIN_BATCH_BYTES = 64 * 1024;
+    public static final double DEFAULT_ADAPTIVE_LATENCY_TOLERANCE = 2.0;
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 1;
+    public static final int DEFAULT_MAX_QUEUED_BATCHES = 4;
+    public static final int DEFAULT_TCP_CONNECTIONS = 1;
+    public static final int DEFAULT_RECONNECT_ATTEMPTS = 3;
+    public static final long DEFAULT_RECONNECT_BACKOFF_MS = 1000;
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    public static final int DEFAULT_COMPRESSION_MIN_BYTES = 4096;
+    public static final String DEFAULT_STRUCT_METRIC_FIELD = "metric";
+    public static final String DEFAULT_STRUCT_TAGS_FIELD = "tags";
+    public static final String DEFAULT_STRUCT_FIELDS_FIELD = "fields";
+    public static final String DEFAULT_STRUCT_TIMESTAMP_FIELD = "timestamp";
+    public static final int DEFAULT_STRUCT_PREFIX_CACHE_SIZE = 10000;
+    public static final long DEFAULT_REQUEST_TIMEOUT_MS = 30000;
+    public static final int DEFAULT_WARMUP_CONNECTIONS = 1;
+    public static final long DEFAULT_PROBE_INTERVAL_MS = 10000;
+    public static final long DEFAULT_PROBE_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_SPOOL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_SPOOL_MAX_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_SPOOL_RETRY_BACKOFF_MS = 1000;
+
     static final ConfigDef CONFIG_DEF = new ConfigDef()
-        .define(TICKTOCKDB_CONFIG, Type.STRING, null, Importance.HIGH, "TickTockDB endpoint to replicate data to");
+        .define(TICKTOCKDB_CONFIG, Type.LIST, null, Importance.HIGH, "TickTockDB endpoints (host:port) to replicate data to; the HTTP port, or the line protocol TCP port when transport is tcp. Series are spread over multiple endpoints by a consistent hash of their metric and tags")
+        .define(TRANSPORT_CONFIG, Type.STRING, TRANSPORT_HTTP, ConfigDef.ValidString.in(TRANSPORT_HTTP, TRANSPORT_TCP), Importance.MEDIUM, "Send line protocol to TickTockDB over http (/api/write) or plain tcp")
+        .define(BATCH_MAX_BYTES_CONFIG, Type.INT, DEFAULT_BATCH_MAX_BYTES, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Send a batch once its body reaches this many bytes")
+        .define(BATCH_MAX_RECORDS_CONFIG, Type.INT, DEFAULT_BATCH_MAX_RECORDS, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Send a batch once it holds this many records")
+        .define(BATCH_LINGER_MS_CONFIG, Type.LONG, DEFAULT_BATCH_LINGER_MS, ConfigDef.Range.atLeast(0), Importance.MEDIUM, "Send a batch once its oldest record has waited this long, in ms")
+        .define(BATCH_DEDUP_CONFIG, Type.BOOLEAN, DEFAULT_BATCH_DEDUP, Importance.LOW, "If true, of the lines in one put() with the same series, field names and timestamp, only the last one (by offset) is sent; lines without a timestamp are always sent")
+        .define(BUFFER_POOL_BYTES_CONFIG, Type.LONG, DEFAULT_BUFFER_POOL_BYTES, ConfigDef.Range.atLeast(0), Importance.LOW, "Max number of bytes of idle direct buffers a task keeps to build batches in, for reuse once TickTockDB accepted the batch they held")
+        .define(ADAPTIVE_CONCURRENCY_CONFIG, Type.BOOLEAN, DEFAULT_ADAPTIVE_CONCURRENCY, Importance.MEDIUM, "If true, the number of batches in flight to an endpoint, and their size, grow while TickTockDB responds fast, and are halved when it slows down or fails, between adaptive.min.in.flight and max.in.flight.requests, and adaptive.min.batch.bytes and batch.max.bytes")
+        .define(ADAPTIVE_MIN_IN_FLIGHT_CONFIG, Type.INT, DEFAULT_ADAPTIVE_MIN_IN_FLIGHT, ConfigDef.Range.atLeast(1), Importance.LOW, "With adaptive concurrency, the least number of batches allowed in flight to an endpoint")
+        .define(ADAPTIVE_MIN_BATCH_BYTES_CONFIG, Type.INT, DEFAULT_ADAPTIVE_MIN_BATCH_BYTES, ConfigDef.Range.atLeast(1), Importance.LOW, "With adaptive concurrency, the smallest size, in bytes, a batch is sent at")
+        .define(ADAPTIVE_LATENCY_TOLERANCE_CONFIG, Type.DOUBLE, DEFAULT_ADAPTIVE_LATENCY_TOLERANCE, ConfigDef.Range.atLeast(1), Importance.LOW, "With adaptive concurrency, a batch that takes more than this many times the usual latency counts as a sign of overload")
+        .define(MAX_IN_FLIGHT_REQUESTS_CONFIG, Type.INT, DEFAULT_MAX_IN_FLIGHT_REQUESTS, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Max number of batches a task sends to an endpoint without waiting for TickTockDB to respond. Batches that share a partition are never in flight together, so each partition is still written in order")
+        .define(MAX_QUEUED_BATCHES_CONFIG, Type.INT, DEFAULT_MAX_QUEUED_BATCHES, ConfigDef.Range.atLeast(0), Importance.LOW, "Max number of full batches a task holds for a busy endpoint before it pauses the partitions of those batches, until the endpoint catches up")
+        .define(TCP_CONNECTIONS_CONFIG, Type.INT, DEFAULT_TCP_CONNECTIONS, ConfigDef.Range.atLeast(1), Importance.LOW, "Number of connections per task when transport is tcp; each partition always goes over the same one")
+        .define(RECONNECT_ATTEMPTS_CONFIG, Type.INT, DEFAULT_RECONNECT_ATTEMPTS, ConfigDef.Range.atLeast(1), Importance.LOW, "Number of times to try writing a batch over tcp, reconnecting in between, before giving up")
+        .define(RECONNECT_BACKOFF_MS_CONFIG, Type.LONG, DEFAULT_RECONNECT_BACKOFF_MS, ConfigDef.Range.atLeast(0), Importance.LOW, "Time to wait, in ms, before reconnecting over tcp")
+        .define(COMPRESSION_TYPE_CONFIG, Type.STRING, COMPRESSION_NONE, ConfigDef.ValidString.in(COMPRESSION_NONE, COMPRESSION_GZIP, COMPRESSION_DEFLATE), Importance.MEDIUM, "Compression of http request bodies: none, gzip or deflate")
+        .define(COMPRESSION_LEVEL_CONFIG, Type.INT, DEFAULT_COMPRESSION_LEVEL, ConfigDef.Range.between(-1, 9), Importance.LOW, "Compression level, from 1 (fastest) to 9 (smallest); -1 for the zlib default")
+        .define(COMPRESSION_MIN_BYTES_CONFIG, Type.INT, DEFAULT_COMPRESSION_MIN_BYTES, ConfigDef.Range.atLeast(0), Importance.LOW, "Batches smaller than this many bytes are sent uncompressed")
+        .define(STRUCT_METRIC_FIELD_CONFIG, Type.STRING, DEFAULT_STRUCT_METRIC_FIELD, new ConfigDef.NonEmptyString(), Importance.LOW, "For Struct or Map values, the field holding the metric name")
+        .define(STRUCT_TAGS_FIELD_CONFIG, Type.STRING, DEFAULT_STRUCT_TAGS_FIELD, new ConfigDef.NonEmptyString(), Importance.LOW, "For Struct or Map values, the field holding the tags, as a Struct or Map")
+        .define(STRUCT_FIELDS_FIELD_CONFIG, Type.STRING, DEFAULT_STRUCT_FIELDS_FIELD, new ConfigDef.NonEmptyString(), Importance.LOW, "For Struct or Map values, the field holding the numeric values, as a Struct or Map")
+        .define(STRUCT_TIMESTAMP_FIELD_CONFIG, Type.STRING, DEFAULT_STRUCT_TIMESTAMP_FIELD, new ConfigDef.NonEmptyString(), Importance.LOW, "For Struct or Map values, the field holding the timestamp; TickTockDB uses the current time if it is missing")
+        .define(STRUCT_PREFIX_CACHE_SIZE_CONFIG, Type.INT, DEFAULT_STRUCT_PREFIX_CACHE_SIZE, ConfigDef.Range.atLeast(1), Importance.LOW, "Number of series whose encoded metric and tags a task keeps cached")
+        .define(REQUEST_TIMEOUT_MS_CONFIG, Type.LONG, DEFAULT_REQUEST_TIMEOUT_MS, ConfigDef.Range.atLeast(1), Importance.LOW, "Time to wait, in ms, for TickTockDB to respond to an http request, or to accept a tcp connection")
+        .define(WARMUP_CONNECTIONS_CONFIG, Type.INT, DEFAULT_WARMUP_CONNECTIONS, ConfigDef.Range.atLeast(0), Importance.LOW, "Number of connections per endpoint a task opens when it starts, and probes keep open, at most tcp.connections over tcp; a task whose endpoint does not answer fails to start, unless it has a spool. 0 to not connect until there is something to send")
+        .define(PROBE_INTERVAL_MS_CONFIG, Type.LONG, DEFAULT_PROBE_INTERVAL_MS, ConfigDef.Range.atLeast(0), Importance.LOW, "How often, in ms, to check in the background that every endpoint answers (GET /api/version over http), keeping idle connections open; an endpoint that does not is marked unhealthy. 0 to not check")
+        .define(PROBE_TIMEOUT_MS_CONFIG, Type.LONG, DEFAULT_PROBE_TIMEOUT_MS, ConfigDef.Range.atLeast(1), Importance.LOW, "Time to wait, in ms, for an endpoint to answer a probe")
+        .define(SPOOL_DIR_CONFIG, Type.STRING, null, Importance.MEDIUM, "Local directory for batches TickTockDB did not accept, to be retried in the background instead of failing the task; no spooling if not set")
+        .define(SPOOL_SEGMENT_BYTES_CONFIG, Type.INT, DEFAULT_SPOOL_SEGMENT_BYTES, ConfigDef.Range.atLeast(1024), Importance.LOW, "Size of each memory-mapped spool file")
+        .define(SPOOL_MAX_BYTES_CONFIG, Type.LONG, DEFAULT_SPOOL_MAX_BYTES, ConfigDef.Range.atLeast(1024), Importance.LOW, "Max number of bytes spooled per task and endpoint")
+        .define(SPOOL_FULL_ACTION_CONFIG, Type.STRING, SPOOL_FULL_FAIL, ConfigDef.ValidString.in(SPOOL_FULL_FAIL, SPOOL_FULL_BLOCK, SPOOL_FULL_DROP), Importance.LOW, "What to do with a failed batch when the spool is full: fail the task, block until there is room, or drop the batch")
+        .define(SPOOL_RETRY_BACKOFF_MS_CONFIG, Type.LONG, DEFAULT_SPOOL_RETRY_BACKOFF_MS, ConfigDef.Range.atLeast(1), Importance.LOW, "Time to wait, in ms, before retrying a spooled batch; doubles on every failure, up to 30 seconds");
 
     private Map<String, String> props;
 
@@ -54,7 +167,7 @@ public class TickTockDBSinkConnector extends SinkConnector {
     public void start(Map<String, String> props) {
         this.props = props;
         AbstractConfig config = new AbstractConfig(CONFIG_DEF, props);
-        String ticktockdb = config.getString(TICKTOCKDB_CONFIG);
+        List<String> ticktockdb = config.getList(TICKTOCKDB_CONFIG);
         log.info("Starting TickTockDB sink connector sending to {}", ticktockdb);
     }
 
@@ -69,7 +182,9 @@ public class TickTockDBSinkConnector extends SinkConnector {
     public List<Map<String, String>> taskConfigs(int maxTasks) {
         ArrayList<Map<String, String>> configs = new ArrayList<>();
         for (int i = 0; i < maxTasks; i++) {
-            configs.add(props);
+            Map<String, String> config = new HashMap<>(props);
+            config.put(TASK_INDEX_CONFIG, Integer.toString(i));
+            configs.add(config);
         }
         return configs;
     }
@@ -84,6 +199,37 @@ public class TickTockDBSinkConnector extends SinkConnector {
         return CONFIG_DEF;
     }
 
+    @Override
+    public Config validate(Map<String, String> connectorConfigs) {
+        Config config = super.validate(connectorConfigs);
+        Map<String, ConfigValue> values = new HashMap<>();
+        for (ConfigValue value : config.configValues())
+            values.put(value.name(), value);
+
+        ConfigValue dir = values.get(SPOOL_DIR_CONFIG);
+        ConfigValue batchBytes = values.get(BATCH_MAX_BYTES_CONFIG);
+        ConfigValue spoolBytes = values.get(SPOOL_MAX_BYTES_CONFIG);
+        if (dir != null && batchBytes != null && spoolBytes != null &&
+            batchBytes.errorMessages().isEmpty() && spoolBytes.errorMessages().isEmpty()) {
+            String error = spoolSizeError((String) dir.value(), (Integer) batchBytes.value(), (Long) spoolBytes.value());
+            if (error != null)
+                batchBytes.addErrorMessage(error);
+        }
+        return config;
+    }
+
+    /**
+     * A batch has to fit in the spool, or it could never be spooled.
+     *
+     * @return null if the sizes are fine
+     */
+    static String spoolSizeError(String spoolDir, int batchMaxBytes, long spoolMaxBytes) {
+        if (spoolDir == null || spoolDir.isEmpty() || batchMaxBytes <= spoolMaxBytes)
+            return null;
+        return BATCH_MAX_BYTES_CONFIG + " (" + batchMaxBytes + ") must not be larger than " +
+            SPOOL_MAX_BYTES_CONFIG + " (" + spoolMaxBytes + ")";
+    }
+
     @Override
     public boolean alterOffsets(Map<String, String> connectorConfig, Map<TopicPartition, Long> offsets) {
         // Nothing to do here since TickTockDBSinkConnector does not manage offsets externally nor does it require any
@@ -0,0 +1,293 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.PluginMetrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TickTockDBSinkMetrics are the metrics of one sink task, registered with the
+ * worker through the task's PluginMetrics, which also exposes them over JMX.
+ * Without PluginMetrics (e.g. in tests, or on workers older than Kafka 4.1)
+ * nothing is recorded.
+ *
+ * Sensors live in the worker's shared Metrics, keyed by name alone, so their
+ * names carry the connector name and task index; see taskId().
+ *
+ * Rates and totals are recorded once per put() or per batch, never per
+ * record. Request latencies and batch sizes go into TickTockDBHistograms,
+ * since they are recorded from the threads completing requests as well.
+ */
+class TickTockDBSinkMetrics {
+    private static final long HISTOGRAM_WINDOW_MS = 30000;
+    private static final String NAME_CONFIG = "name";     // the connector name, set by the worker
+
+    private final PluginMetrics metrics;
+    private final String prefix;
+    private final com.sun.management.ThreadMXBean threads;
+    private final Sensor allocation;
+    private final Sensor invalid;
+    private final Sensor duplicates;
+    private final Sensor dedupRatio;
+    private final Sensor records;
+    private final Sensor bytes;
+    private final Sensor failed;
+    private final Sensor rejected;
+    private final TickTockDBHistogram latency;
+    private final TickTockDBHistogram batchRecords;
+    private final TickTockDBHistogram batchBytes;
+
+    TickTockDBSinkMetrics(PluginMetrics metrics, String taskId) {
+        this.metrics = metrics;
+        prefix = "ticktockdb-sink." + taskId + ".";
+        threads = allocationCounter();
+
+        if (metrics == null) {
+            allocation = null;
+            invalid = null;
+            duplicates = null;
+            dedupRatio = null;
+            records = null;
+            bytes = null;
+            failed = null;
+            rejected = null;
+            latency = null;
+            batchRecords = null;
+            batchBytes = null;
+            return;
+        }
+
+        LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+
+        allocation = sensor("record-allocation");
+        allocation.add(metrics.metricName("record-allocation-bytes-avg", "Average number of bytes allocated by put() per record", tags), new Avg());
+        allocation.add(metrics.metricName("record-allocation-bytes-max", "Max number of bytes allocated by put() per record", tags), new Max());
+
+        invalid = sensor("invalid-lines");
+        invalid.add(metrics.metricName("invalid-lines-total", "Number of lines dropped because they are not valid line protocol", tags), new CumulativeSum());
+
+        duplicates = sensor("duplicate-lines");
+        duplicates.add(metrics.metricName("duplicate-lines-total", "Number of lines dropped because a later line of the same put() had the same series, fields and timestamp", tags), new CumulativeSum());
+        dedupRatio = sensor("dedup-ratio");
+        dedupRatio.add(metrics.metricName("dedup-ratio-avg", "Average fraction of the lines of a put() dropped as duplicates", tags), new Avg());
+
+        records = sensor("records");
+        records.add(new Meter(metrics.metricName("records-rate", "Number of records put() per second", tags),
+            metrics.metricName("records-total", "Number of records put()", tags)));
+        bytes = sensor("bytes");
+        bytes.add(new Meter(metrics.metricName("bytes-rate", "Number of bytes of line protocol batched per second", tags),
+            metrics.metricName("bytes-total", "Number of bytes of line protocol batched", tags)));
+
+        failed = sensor("failed-requests");
+        failed.add(metrics.metricName("failed-requests-total", "Number of batches TickTockDB did not accept", tags), new CumulativeSum());
+        rejected = sensor("rejected-records");
+        rejected.add(metrics.metricName("rejected-records-total", "Number of records TickTockDB rejected, and that went to the errant record reporter", tags), new CumulativeSum());
+
+        latency = new TickTockDBHistogram(HISTOGRAM_WINDOW_MS);
+        percentiles(latency, "request-latency-ms", "Request latency, in ms, over the last minute or so", tags);
+        batchRecords = new TickTockDBHistogram(HISTOGRAM_WINDOW_MS);
+        percentiles(batchRecords, "batch-records", "Number of records per batch sent, over the last minute or so", tags);
+        batchBytes = new TickTockDBHistogram(HISTOGRAM_WINDOW_MS);
+        percentiles(batchBytes, "batch-bytes", "Size, in bytes, of batches sent, before compression, over the last minute or so", tags);
+    }
+
+    /**
+     * @return the task's PluginMetrics, or null if the worker does not provide them
+     */
+    /**
+     * @return connector name and task index, unique among the tasks of a worker
+     */
+    static String taskId(Map<String, String> props) {
+        return props.getOrDefault(NAME_CONFIG, "") + "-" + props.getOrDefault(TickTockDBSinkConnector.TASK_INDEX_CONFIG, "0");
+    }
+
+    private Sensor sensor(String name) {
+        return metrics.addSensor(prefix + name);
+    }
+
+    static PluginMetrics pluginMetrics(SinkTaskContext context) {
+        if (context == null)
+            return null;
+        try {
+            return context.pluginMetrics();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return number of bytes the current thread has allocated so far, or -1 if unknown
+     */
+    long allocatedBytes() {
+        return (allocation == null || threads == null) ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * @param before what allocatedBytes() returned before processing the records
+     */
+    void recordAllocation(long before, int records) {
+        if (before < 0 || records == 0)
+            return;
+        allocation.record((double) (allocatedBytes() - before) / records);
+    }
+
+    void recordInvalid(int lines) {
+        if (invalid != null && lines > 0)
+            invalid.record(lines);
+    }
+
+    /**
+     * @param dropped number of the lines dropped as duplicates
+     */
+    void recordDuplicates(int dropped, int lines) {
+        if (duplicates == null || lines == 0)
+            return;
+        duplicates.record(dropped);
+        dedupRatio.record((double) dropped / lines);
+    }
+
+    /**
+     * @param bytes number of bytes of line protocol the records made
+     */
+    void recordPut(int records, long bytes) {
+        if (this.records == null || records == 0)
+            return;
+        this.records.record(records);
+        this.bytes.record(bytes);
+    }
+
+    void recordBatch(TickTockDBBatch batch) {
+        if (batchRecords == null)
+            return;
+        batchRecords.record(batch.count());
+        batchBytes.record(batch.size());
+    }
+
+    /**
+     * May be called from any thread.
+     */
+    void recordLatency(long ms) {
+        if (latency != null)
+            latency.record(ms);
+    }
+
+    void recordFailed() {
+        if (failed != null)
+            failed.record();
+    }
+
+    void recordRejected() {
+        if (rejected != null)
+            rejected.record();
+    }
+
+    /**
+     * Report what the endpoints hold: batches in flight, batches queued, and
+     * bytes spooled, summed over all endpoints, and the age of the oldest
+     * spooled batch.
+     */
+    void endpoints(TickTockDBEndpoint[] endpoints) {
+        if (metrics == null)
+            return;
+        LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+        metrics.addMetric(metrics.metricName("in-flight-requests", "Number of batches sent and not yet answered", tags),
+            (Gauge<Integer>) (config, now) -> {
+                int n = 0;
+                for (TickTockDBEndpoint endpoint : endpoints)
+                    n += endpoint.inFlight();
+                return n;
+            });
+        metrics.addMetric(metrics.metricName("healthy-endpoints", "Number of endpoints whose last batch or probe succeeded", tags),
+            (Gauge<Integer>) (config, now) -> {
+                int n = 0;
+                for (TickTockDBEndpoint endpoint : endpoints)
+                    if (endpoint.isHealthy())
+                        n++;
+                return n;
+            });
+        metrics.addMetric(metrics.metricName("queued-batches", "Number of full batches waiting to be sent", tags),
+            (Gauge<Integer>) (config, now) -> {
+                int n = 0;
+                for (TickTockDBEndpoint endpoint : endpoints)
+                    n += endpoint.queued();
+                return n;
+            });
+        metrics.addMetric(metrics.metricName("spooled-bytes", "Number of bytes of batches waiting in the spool", tags),
+            (Gauge<Long>) (config, now) -> {
+                long n = 0;
+                for (TickTockDBEndpoint endpoint : endpoints)
+                    n += endpoint.spooled();
+                return n;
+            });
+        metrics.addMetric(metrics.metricName("spool-age-ms", "Time the oldest batch in the spool has been waiting", tags),
+            (Gauge<Long>) (config, now) -> {
+                long age = 0;
+                for (TickTockDBEndpoint endpoint : endpoints)
+                    age = Math.max(age, endpoint.spoolAge(now));
+                return age;
+            });
+    }
+
+    /**
+     * Report the current limits of an endpoint's limiter.
+     */
+    void limiter(String endpoint, TickTockDBLimiter limiter) {
+        if (metrics == null)
+            return;
+        LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+        tags.put("endpoint", endpoint);
+        metrics.addMetric(metrics.metricName("in-flight-limit", "Max number of batches currently allowed in flight to the endpoint", tags),
+            (Gauge<Integer>) (config, now) -> limiter.inFlight());
+        metrics.addMetric(metrics.metricName("batch-bytes-limit", "Size, in bytes, batches to the endpoint are currently sent at", tags),
+            (Gauge<Integer>) (config, now) -> limiter.batchBytes());
+    }
+
+    private void percentiles(TickTockDBHistogram histogram, String name, String description,
+                             LinkedHashMap<String, String> tags) {
+        metrics.addMetric(metrics.metricName(name + "-p50", description + ", median", tags),
+            (Gauge<Double>) (config, now) -> histogram.percentile(0.50));
+        metrics.addMetric(metrics.metricName(name + "-p99", description + ", 99th percentile", tags),
+            (Gauge<Double>) (config, now) -> histogram.percentile(0.99));
+        metrics.addMetric(metrics.metricName(name + "-p999", description + ", 99.9th percentile", tags),
+            (Gauge<Double>) (config, now) -> histogram.percentile(0.999));
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+                    return threads;
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot JVM
+        }
+        return null;
+    }
+}
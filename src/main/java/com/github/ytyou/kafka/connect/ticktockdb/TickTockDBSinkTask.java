@@ -21,29 +21,57 @@ import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
+import org.apache.kafka.connect.sink.SinkTaskContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * TickTockDBSinkTask sends records to a TickTockDB endpoint.
+ * TickTockDBSinkTask sends records to one or more TickTockDB endpoints.
+ * With more than one endpoint, each series always goes to the same one.
+ *
+ * put() never waits for a busy endpoint; the partitions it has too many
+ * batches queued of are paused instead, until it catches up.
+ *
+ * start() connects to every endpoint, and makes sure it answers, so the
+ * first put() does not pay for it, and a task that cannot reach TickTockDB
+ * fails right away. A background thread then probes the endpoints, see
+ * TickTockDBEndpoint.probe().
  */
 public class TickTockDBSinkTask extends SinkTask {
     private static final Logger log = LoggerFactory.getLogger(TickTockDBSinkTask.class);
 
-    private String ticktockdb;
-    private HttpClient client = HttpClient.newHttpClient();
+    private TickTockDBEndpoint[] endpoints;
+    private TickTockDBRouter router;
+    private final TickTockDBLineProtocol protocol = new TickTockDBLineProtocol();
+    private TickTockDBStructEncoder encoder;
+    private TickTockDBSinkMetrics metrics;
+    private TickTockDBArena arena;      // shared by all endpoints
+    private TickTockDBDedup dedup;      // null unless dropping duplicate data points
+    private final TickTockDBDedup.Sink route =
+        (target, bytes, off, len, record, partition, offset) -> endpoints[target].add(bytes, off, len, record, partition, offset);
+    private long lingerMs;
+    private ScheduledExecutorService prober;     // null unless probing
+
+    // highest offset, per partition, of the records we were given
+    private final Map<TopicPartition, Long> seen = new HashMap<>();
+    // partitions we paused for a backlogged endpoint
+    private final Set<TopicPartition> paused = new HashSet<>();
 
     public TickTockDBSinkTask() {
     }
@@ -56,53 +84,252 @@ public class TickTockDBSinkTask extends SinkTask {
     @Override
     public void start(Map<String, String> props) {
         AbstractConfig config = new AbstractConfig(TickTockDBSinkConnector.CONFIG_DEF, props);
-        ticktockdb = config.getString(TickTockDBSinkConnector.TICKTOCKDB_CONFIG);
-        client = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_1_1)
-            .followRedirects(HttpClient.Redirect.NORMAL)
-            .connectTimeout(Duration.ofSeconds(10))
-            .build();
+        List<String> ticktockdb = config.getList(TickTockDBSinkConnector.TICKTOCKDB_CONFIG);
+        lingerMs = config.getLong(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG);
+        dedup = config.getBoolean(TickTockDBSinkConnector.BATCH_DEDUP_CONFIG) ? new TickTockDBDedup() : null;
+        seen.clear();
+        endpoints = null;
+        metrics = new TickTockDBSinkMetrics(TickTockDBSinkMetrics.pluginMetrics(context), TickTockDBSinkMetrics.taskId(props));
+        if (ticktockdb == null || ticktockdb.isEmpty())
+            return;
+
+        encoder = new TickTockDBStructEncoder(config);
+        arena = new TickTockDBArena(config.getLong(TickTockDBSinkConnector.BUFFER_POOL_BYTES_CONFIG));
+        ErrantRecordReporter reporter = errantRecordReporter(context);
+        endpoints = new TickTockDBEndpoint[ticktockdb.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new TickTockDBEndpoint(ticktockdb.get(i), arena, reporter, metrics, config);
+            if (context != null)
+                endpoints[i].pausable();
+            if (endpoints[i].limiter() != null)
+                metrics.limiter(endpoints[i].address(), endpoints[i].limiter());
+        }
+        metrics.endpoints(endpoints);
+        router = new TickTockDBRouter(ticktockdb);
+
+        if (config.getInt(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG) > 0)
+            warmup();
+
+        long intervalMs = config.getLong(TickTockDBSinkConnector.PROBE_INTERVAL_MS_CONFIG);
+        if (intervalMs > 0) {
+            prober = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ticktockdb-prober");
+                thread.setDaemon(true);
+                return thread;
+            });
+            TickTockDBEndpoint[] probed = endpoints;
+            prober.scheduleWithFixedDelay(() -> {
+                for (TickTockDBEndpoint endpoint : probed)
+                    endpoint.probe();
+            }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Probe all endpoints at once, and wait for them.
+     */
+    private void warmup() {
+        List<CompletableFuture<String>> probes = new ArrayList<>();
+        for (TickTockDBEndpoint endpoint : endpoints)
+            probes.add(endpoint.probe());
+
+        for (int i = 0; i < endpoints.length; i++) {
+            String version = probes.get(i).join();     // probes time out by themselves
+            if (version != null) {
+                log.info("Connected to TickTockDB endpoint {}, version {}", endpoints[i].address(), version);
+            } else if (! endpoints[i].isSpooled()) {
+                String address = endpoints[i].address();
+                stop();
+                throw new ConnectException("TickTockDB endpoint " + address + " does not answer");
+            }
+        }
     }
 
     @Override
     public void put(Collection<SinkRecord> sinkRecords) {
-        if (ticktockdb == null)
+        if (endpoints == null)
             return;
 
+        long allocated = metrics.allocatedBytes();
+        TopicPartition partition = null;
+        long offset = -1;
+        int invalid = 0;
+        long bytesIn = 0;
+
         for (SinkRecord record : sinkRecords) {
-            if (record.value().toString().contains("\""))
-                continue;   // TickTockDB does not support string values
-
-            // send to TickTockDB
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("http://" + ticktockdb + "/api/write"))
-                .header("Content-Type", "text/plain")
-                .POST(HttpRequest.BodyPublishers.ofString(record.value().toString()))
-                .build();
-
-            HttpResponse<String> response;
-
-            try {
-                response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            } catch (Exception e) {
-                throw new ConnectException("Failed to send to " + ticktockdb, e);
+            if (partition == null || record.originalKafkaPartition() != partition.partition() ||
+                ! record.originalTopic().equals(partition.topic())) {
+                if (partition != null)
+                    seen.put(partition, offset);
+                partition = new TopicPartition(record.originalTopic(), record.originalKafkaPartition());
+            }
+            offset = record.originalKafkaOffset();
+
+            byte[] bytes;
+            int begin, end;
+
+            if (TickTockDBStructEncoder.accepts(record.value())) {
+                if (! encoder.encode(record.value())) {
+                    invalid++;
+                    continue;
+                }
+                bytes = encoder.bytes();
+                begin = encoder.offset();
+                end = begin + encoder.length();
+            } else if (protocol.wrap(record.value())) {
+                bytes = protocol.bytes();
+                begin = protocol.offset();
+                end = begin + protocol.length();
+            } else {
+                if (record.value() != null)
+                    invalid++;
+                continue;
             }
 
-            if (response.statusCode() != 200)
-            {
-                log.error("Failed to send {} to {}", record.value(), ticktockdb);
-                throw new ConnectException("Failed to send to " + ticktockdb + ", status = " + response.statusCode());
+            // A value may hold more than one line.
+            for (int start = begin; start < end; ) {
+                int eol = start;
+                while (eol < end && bytes[eol] != '\n')
+                    eol++;
+                int next = eol + 1;
+                while (eol > start && (bytes[eol-1] == '\r' || bytes[eol-1] == ' '))
+                    eol--;
+
+                if (eol > start) {
+                    if (! protocol.scan(bytes, start, eol)) {
+                        invalid++;
+                    } else {
+                        bytesIn += eol - start + 1;
+                        if (dedup != null)
+                            dedup.add(bytes, start, eol - start, router.route(protocol.seriesHash()), record, partition, offset, protocol.pointHash());
+                        else
+                            endpoints[router.route(protocol.seriesHash())].add(bytes, start, eol - start, record, partition, offset);
+                    }
+                }
+                start = next;
+            }
+        }
+
+        if (partition != null)
+            seen.put(partition, offset);
+        if (dedup != null && dedup.count() > 0) {
+            int lines = dedup.count();
+            metrics.recordDuplicates(dedup.drain(route), lines);
+        }
+        metrics.recordInvalid(invalid);
+        metrics.recordPut(sinkRecords.size(), bytesIn);
+        metrics.recordAllocation(allocated, sinkRecords.size());
+
+        // put() is called regularly, even without new records,
+        // so this is where partially filled batches get sent.
+        long now = System.currentTimeMillis();
+        for (TickTockDBEndpoint endpoint : endpoints)
+            endpoint.linger(now, lingerMs);
+        backpressure();
+    }
+
+    /**
+     * Pause the partitions queued for backlogged endpoints, and resume those
+     * that no backlogged endpoint holds any more. Without a context to pause
+     * them with, the endpoints wait for TickTockDB instead.
+     */
+    private void backpressure() {
+        if (context == null)
+            return;
+        Set<TopicPartition> held = new HashSet<>();
+        for (TickTockDBEndpoint endpoint : endpoints) {
+            if (endpoint.isBacklogged())
+                endpoint.queuedPartitions(held);
+        }
+        held.retainAll(seen.keySet());  // still assigned
+
+        Set<TopicPartition> resume = new HashSet<>(paused);
+        resume.removeAll(held);
+        held.removeAll(paused);
+        if (! held.isEmpty()) {
+            log.debug("Pausing {} until TickTockDB catches up", held);
+            context.pause(held.toArray(new TopicPartition[0]));
+            paused.addAll(held);
+        }
+        if (! resume.isEmpty()) {
+            log.debug("Resuming {}", resume);
+            context.resume(resume.toArray(new TopicPartition[0]));
+            paused.removeAll(resume);
+        }
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        if (endpoints == null)
+            return currentOffsets;
+
+        // Don't wait for outstanding requests; whatever is not
+        // acknowledged yet will be committed next time around.
+        for (TickTockDBEndpoint endpoint : endpoints)
+            endpoint.linger(System.currentTimeMillis(), 0);
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : currentOffsets.keySet()) {
+            Long last = seen.get(partition);
+            if (last == null)
+                continue;
+
+            // A partition's records are spread over all endpoints, so we can
+            // only commit up to the oldest one any endpoint still holds.
+            long next = last + 1;
+            for (TickTockDBEndpoint endpoint : endpoints) {
+                Long unacked = endpoint.firstUnacked(partition);
+                if (unacked != null)
+                    next = Math.min(next, unacked);
             }
+            offsets.put(partition, new OffsetAndMetadata(next));
         }
+        return offsets;
     }
 
     @Override
     public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
-        // TODO: Instruct TickTockDB to flush!
+        // Wait until everything we were given so far has reached TickTockDB.
+        if (endpoints == null)
+            return;
+        for (TickTockDBEndpoint endpoint : endpoints)
+            endpoint.flush();
+    }
+
+    @Override
+    public void close(Collection<TopicPartition> partitions) {
+        // Records of these partitions still in flight will be
+        // redelivered to whichever task picks them up next.
+        for (TopicPartition partition : partitions) {
+            seen.remove(partition);
+            paused.remove(partition);
+        }
+    }
+
+    /**
+     * @return the worker's errant record reporter, or null if there is none
+     *         (no dead letter queue, or a worker older than Kafka 2.6)
+     */
+    private static ErrantRecordReporter errantRecordReporter(SinkTaskContext context) {
+        if (context == null)
+            return null;
+        try {
+            return context.errantRecordReporter();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
     }
 
     @Override
     public void stop() {
-        // Close the client?
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+        if (endpoints == null)
+            return;
+        for (TickTockDBEndpoint endpoint : endpoints)
+            endpoint.close();
+        endpoints = null;
     }
 }
@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,15 +43,57 @@ public class TickTockDBSourceConnector extends SourceConnector {
     private static final Logger log = LoggerFactory.getLogger(TickTockDBSourceConnector.class);
     public static final String TOPIC_CONFIG = "topic";
     public static final String PORT_CONFIG = "port";
+    public static final String HTTP_PORT_CONFIG = "http.port";
     public static final String TIMEOUT_CONFIG = "timeout";
+    public static final String QUEUE_SIZE_CONFIG = "queue.size";
+    public static final String BATCH_SIZE_CONFIG = "batch.size";
+    public static final String POLL_MAX_WAIT_MS_CONFIG = "poll.max.wait.ms";
+    public static final String REUSE_PORT_CONFIG = "reuse.port";
+    public static final String KEY_CACHE_SIZE_CONFIG = "key.cache.size";
+    public static final String OUTPUT_FORMAT_CONFIG = "output.format";
+    public static final String DICTIONARY_SIZE_CONFIG = "dictionary.size";
+    public static final String AGGREGATE_WINDOW_MS_CONFIG = "aggregate.window.ms";
+    public static final String AGGREGATE_FUNCTION_CONFIG = "aggregate.function";
+    public static final String AGGREGATE_LATENESS_MS_CONFIG = "aggregate.lateness.ms";
+    public static final String AGGREGATE_MAX_SERIES_CONFIG = "aggregate.max.series";
+
+    // Set by taskConfigs(), not by users.
+    static final String TASK_INDEX_CONFIG = "task.index";
+    static final String TASK_COUNT_CONFIG = "task.count";
 
     public static final int DEFAULT_PORT = 6181;
+    public static final int DEFAULT_HTTP_PORT = -1;     // not listening
     public static final int DEFAULT_TIMEOUT = 100;  // ms
+    public static final int DEFAULT_QUEUE_SIZE = 65536;
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    public static final long DEFAULT_POLL_MAX_WAIT_MS = 100;
+    public static final boolean DEFAULT_REUSE_PORT = true;
+    public static final int DEFAULT_KEY_CACHE_SIZE = 10000;
+    public static final String OUTPUT_FORMAT_STRING = "string";
+    public static final String OUTPUT_FORMAT_STRUCT = "struct";
+    public static final String DEFAULT_OUTPUT_FORMAT = OUTPUT_FORMAT_STRING;
+    public static final int DEFAULT_DICTIONARY_SIZE = 65536;
+    public static final long DEFAULT_AGGREGATE_WINDOW_MS = 0;
+    public static final String DEFAULT_AGGREGATE_FUNCTION = TickTockDBAggregator.AVG;
+    public static final long DEFAULT_AGGREGATE_LATENESS_MS = 5000;
+    public static final int DEFAULT_AGGREGATE_MAX_SERIES = 1000000;
 
     static final ConfigDef CONFIG_DEF = new ConfigDef()
         .define(TOPIC_CONFIG, Type.STRING, ConfigDef.NO_DEFAULT_VALUE, new ConfigDef.NonEmptyString(), Importance.HIGH, "The topic to publish data to")
         .define(PORT_CONFIG, Type.INT, DEFAULT_PORT, Importance.LOW, "The port we will listen on")
-        .define(TIMEOUT_CONFIG, Type.INT, DEFAULT_TIMEOUT, Importance.LOW, "The timeout, in ms, while reading from incoming network traffic");
+        .define(HTTP_PORT_CONFIG, Type.INT, DEFAULT_HTTP_PORT, ConfigDef.Range.atLeast(-1), Importance.LOW, "The port we will accept HTTP writes to /api/write (line protocol) and /api/put (OpenTSDB JSON) on, e.g. 6182; -1 to not listen for HTTP")
+        .define(TIMEOUT_CONFIG, Type.INT, DEFAULT_TIMEOUT, Importance.LOW, "The timeout, in ms, while reading from incoming network traffic")
+        .define(QUEUE_SIZE_CONFIG, Type.INT, DEFAULT_QUEUE_SIZE, ConfigDef.Range.atLeast(1), Importance.LOW, "Max number of lines buffered between the network and poll(), rounded up to a power of 2; when full, connections are not read from until there is room")
+        .define(BATCH_SIZE_CONFIG, Type.INT, DEFAULT_BATCH_SIZE, ConfigDef.Range.atLeast(1), Importance.LOW, "Max number of records returned by one poll()")
+        .define(POLL_MAX_WAIT_MS_CONFIG, Type.LONG, DEFAULT_POLL_MAX_WAIT_MS, ConfigDef.Range.atLeast(0), Importance.LOW, "Max time, in ms, poll() waits for the first record")
+        .define(REUSE_PORT_CONFIG, Type.BOOLEAN, DEFAULT_REUSE_PORT, Importance.LOW, "With more than one task: if true, and the OS supports SO_REUSEPORT, all tasks on a worker listen on the same port and the kernel spreads connections across them; otherwise task N listens on port + N")
+        .define(KEY_CACHE_SIZE_CONFIG, Type.INT, DEFAULT_KEY_CACHE_SIZE, ConfigDef.Range.atLeast(1), Importance.LOW, "Max number of series keys to cache per task; the key of a record is its metric followed by its tags sorted by key")
+        .define(OUTPUT_FORMAT_CONFIG, Type.STRING, DEFAULT_OUTPUT_FORMAT, ConfigDef.ValidString.in(OUTPUT_FORMAT_STRING, OUTPUT_FORMAT_STRUCT), Importance.MEDIUM, "Publish each data point as the line it was received as (string), or as a Struct with metric, tags, int64 timestamp and float64 fields (struct); lines that can't be parsed are dropped in struct mode")
+        .define(DICTIONARY_SIZE_CONFIG, Type.INT, DEFAULT_DICTIONARY_SIZE, ConfigDef.Range.atLeast(1), Importance.LOW, "Number of slots of the dictionary metric, tag and field names are interned in, in struct mode, or when aggregating")
+        .define(AGGREGATE_WINDOW_MS_CONFIG, Type.LONG, DEFAULT_AGGREGATE_WINDOW_MS, ConfigDef.Range.atLeast(0), Importance.MEDIUM, "If positive, data points are aggregated into windows of this many ms, and one record per series, field and window is published, timed at the start of the window; 0 to publish every data point")
+        .define(AGGREGATE_FUNCTION_CONFIG, Type.STRING, DEFAULT_AGGREGATE_FUNCTION, ConfigDef.ValidString.in(TickTockDBAggregator.AVG, TickTockDBAggregator.SUM, TickTockDBAggregator.MIN, TickTockDBAggregator.MAX, TickTockDBAggregator.LAST, TickTockDBAggregator.COUNT), Importance.MEDIUM, "How the data points of a window are aggregated")
+        .define(AGGREGATE_LATENESS_MS_CONFIG, Type.LONG, DEFAULT_AGGREGATE_LATENESS_MS, ConfigDef.Range.atLeast(0), Importance.LOW, "How far, in ms, data points may lag behind the newest one seen and still make it into their window; later ones are dropped")
+        .define(AGGREGATE_MAX_SERIES_CONFIG, Type.INT, DEFAULT_AGGREGATE_MAX_SERIES, ConfigDef.Range.atLeast(1), Importance.LOW, "Max number of series windows open at once per task; when reached, windows already closed are published early to make room, and data points that still find none are dropped");
 
     private Map<String, String> props;
 
@@ -72,14 +115,19 @@ public class TickTockDBSourceConnector extends SourceConnector {
     @Override
     public List<Map<String, String>> taskConfigs(int maxTasks) {
         ArrayList<Map<String, String>> configs = new ArrayList<>();
-        // Only one input stream makes sense.
-        configs.add(props);
+        // Each task runs its own network server; see TickTockDBSourceTask.listenPort().
+        for (int i = 0; i < maxTasks; i++) {
+            Map<String, String> config = new HashMap<>(props);
+            config.put(TASK_INDEX_CONFIG, Integer.toString(i));
+            config.put(TASK_COUNT_CONFIG, Integer.toString(maxTasks));
+            configs.add(config);
+        }
         return configs;
     }
 
     @Override
     public void stop() {
-        // Nothing to do since FileStreamSourceConnector has no background monitoring.
+        // Nothing to do since TickTockDBSourceConnector has no background monitoring.
     }
 
     @Override
@@ -0,0 +1,150 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.PluginMetrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.connect.source.SourceTaskContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * TickTockDBSourceMetrics are the metrics of one source task, registered
+ * with the worker through the task's PluginMetrics, which also exposes them
+ * over JMX. Without PluginMetrics (e.g. in tests, or on workers older than
+ * Kafka 4.1) nothing is recorded. Sensor names carry the connector name and
+ * task index, since sensors are shared by all the tasks of a worker.
+ *
+ * Rates are recorded once per poll(). What the network thread counts, it
+ * counts by itself, and is read through gauges, so that thread never touches
+ * a Sensor.
+ */
+class TickTockDBSourceMetrics {
+    private static final long HISTOGRAM_WINDOW_MS = 30000;
+    private static final String NAME_CONFIG = "name";     // the connector name, set by the worker
+
+    private final PluginMetrics metrics;
+    private final String prefix;
+    private final Sensor lines;
+    private final Sensor bytes;
+    private final Sensor records;
+    private final TickTockDBHistogram pollRecords;
+
+    TickTockDBSourceMetrics(PluginMetrics metrics, String taskId) {
+        this.metrics = metrics;
+        prefix = "ticktockdb-source." + taskId + ".";
+
+        if (metrics == null) {
+            lines = null;
+            bytes = null;
+            records = null;
+            pollRecords = null;
+            return;
+        }
+
+        LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+
+        lines = sensor("lines");
+        lines.add(new Meter(metrics.metricName("lines-rate", "Number of lines received per second", tags),
+            metrics.metricName("lines-total", "Number of lines received", tags)));
+        bytes = sensor("bytes");
+        bytes.add(new Meter(metrics.metricName("bytes-rate", "Number of characters of lines received per second", tags),
+            metrics.metricName("bytes-total", "Number of characters of lines received", tags)));
+        records = sensor("records");
+        records.add(new Meter(metrics.metricName("records-rate", "Number of records returned by poll() per second", tags),
+            metrics.metricName("records-total", "Number of records returned by poll()", tags)));
+
+        pollRecords = new TickTockDBHistogram(HISTOGRAM_WINDOW_MS);
+        String description = "Number of records returned by a poll() that returned any, over the last minute or so";
+        metrics.addMetric(metrics.metricName("poll-records-p50", description + ", median", tags),
+            (Gauge<Double>) (config, now) -> pollRecords.percentile(0.50));
+        metrics.addMetric(metrics.metricName("poll-records-p99", description + ", 99th percentile", tags),
+            (Gauge<Double>) (config, now) -> pollRecords.percentile(0.99));
+    }
+
+    /**
+     * @return the task's PluginMetrics, or null if the worker does not provide them
+     */
+    /**
+     * @return connector name and task index, unique among the tasks of a worker
+     */
+    static String taskId(Map<String, String> props) {
+        return props.getOrDefault(NAME_CONFIG, "") + "-" + props.getOrDefault(TickTockDBSourceConnector.TASK_INDEX_CONFIG, "0");
+    }
+
+    private Sensor sensor(String name) {
+        return metrics.addSensor(prefix + name);
+    }
+
+    static PluginMetrics pluginMetrics(SourceTaskContext context) {
+        if (context == null)
+            return null;
+        try {
+            return context.pluginMetrics();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param lines number of lines taken from the queue
+     * @param bytes their length, in characters
+     * @param records number of records returned
+     */
+    void recordPoll(int lines, long bytes, int records) {
+        if (this.lines == null)
+            return;
+        if (lines > 0) {
+            this.lines.record(lines);
+            this.bytes.record(bytes);
+        }
+        if (records > 0) {
+            this.records.record(records);
+            pollRecords.record(records);
+        }
+    }
+
+    /**
+     * Report the queue, the server, and the task's own drop counts.
+     *
+     * @param dropped number of lines the task dropped
+     * @param late number of data points too late for their aggregation window
+     */
+    void task(TickTockDBRingBuffer<?> queue, TickTockDBServer server, LongSupplier dropped, LongSupplier late,
+              LongSupplier overflowed) {
+        if (metrics == null)
+            return;
+        LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+        metrics.addMetric(metrics.metricName("queue-depth", "Number of lines received and not yet polled", tags),
+            (Gauge<Integer>) (config, now) -> queue.size());
+        metrics.addMetric(metrics.metricName("queue-capacity", "Max number of lines received and not yet polled", tags),
+            (Gauge<Integer>) (config, now) -> queue.capacity());
+        metrics.addMetric(metrics.metricName("connections", "Number of open TCP and HTTP connections", tags),
+            (Gauge<Integer>) (config, now) -> server.connections());
+        metrics.addMetric(metrics.metricName("dropped-lines-total", "Number of lines dropped: too long, not valid JSON data points, or, when publishing Structs, not data points", tags),
+            (Gauge<Long>) (config, now) -> server.dropped() + dropped.getAsLong());
+        metrics.addMetric(metrics.metricName("late-points-total", "Number of data points dropped because their aggregation window was closed already", tags),
+            (Gauge<Long>) (config, now) -> late.getAsLong());
+        metrics.addMetric(metrics.metricName("overflowed-points-total", "Number of data points dropped because aggregate.max.series windows were open already", tags),
+            (Gauge<Long>) (config, now) -> overflowed.getAsLong());
+    }
+}
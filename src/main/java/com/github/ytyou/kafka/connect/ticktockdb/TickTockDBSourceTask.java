@@ -19,6 +19,7 @@ package com.github.ytyou.kafka.connect.ticktockdb;
 
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.kafka.connect.source.SourceTask;
@@ -26,37 +27,60 @@ import org.apache.kafka.connect.source.SourceTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
- * TickTockDBSourceTask reads from stdin or a file.
+ * TickTockDBSourceTask receives lines from collectors over TCP, and publishes
+ * each line as a record. The network side is handled by a TickTockDBServer.
+ *
+ * Optionally it also takes HTTP writes, to /api/write and /api/put, like
+ * TickTockDB does. OpenTSDB JSON data points become "put" lines.
+ *
+ * Every task runs its own server and queue. With more than one task, they
+ * share the port through SO_REUSEPORT where the OS supports it, so that the
+ * kernel balances connections across them; otherwise task N listens on the
+ * configured port + N.
  */
 public class TickTockDBSourceTask extends SourceTask {
     private static final Logger log = LoggerFactory.getLogger(TickTockDBSourceTask.class);
+    private static final Schema KEY_SCHEMA = Schema.STRING_SCHEMA;
     private static final Schema VALUE_SCHEMA = Schema.STRING_SCHEMA;
 
     private String topic;
     private int port;       // the port we are listening on
+    private int httpPort;   // -1 if not listening for HTTP
     private int timeout;    // ms
-    private ServerSocket socket;
-    private ConcurrentLinkedQueue<BufferedReader> readers;
-    private ConcurrentLinkedQueue<DataOutputStream> writers;
-    private Listener listener;
+    private int batchSize;
+    private long maxWaitMs;
+    private TickTockDBRingBuffer<String> lines;
+    private TickTockDBPointParser parser;
+    private boolean structs;                    // publish Structs rather than lines
+    private TickTockDBDictionary dictionary;    // null unless publishing Structs or aggregating
+    private TickTockDBAggregator aggregator;    // null unless aggregating
+    private final TickTockDBAggregator.SeriesFactory seriesFactory = this::series;
+    private final TickTockDBAggregator.Emitter emitter = this::emit;
+    private final TickTockDBPointParser.FieldVisitor visitor = this::aggregate;
+    private String pointKey;                    // series key of the point being aggregated
+    private long pointTime;                     // and its timestamp
+    private String field;                       // and the field being aggregated
+    private List<SourceRecord> records;         // the records poll() is returning
+    private volatile long late = 0;             // points dropped for arriving after their window closed
+    private volatile long overflowed = 0;       // points dropped for lack of room for their window
+    private volatile long dropped = 0;          // lines dropped for not being data points
+    private long bytesIn;                       // length of the lines taken by this poll()
+    private TickTockDBSourceMetrics metrics;
+    private volatile boolean stopping = false;
+    private volatile Thread poller;             // the thread calling poll()
+    private volatile int open = 0;              // windows still open after the last poll()
+    private CountDownLatch flushed;             // counted down once the closed windows are emitted after stop()
+    private TickTockDBServer server;
 
     public TickTockDBSourceTask() {
     }
@@ -68,127 +92,282 @@ public class TickTockDBSourceTask extends SourceTask {
 
     @Override
     public void start(Map<String, String> props) {
-        readers = new ConcurrentLinkedQueue<BufferedReader>();
-        writers = new ConcurrentLinkedQueue<DataOutputStream>();
-
         AbstractConfig config = new AbstractConfig(TickTockDBSourceConnector.CONFIG_DEF, props);
         topic = config.getString(TickTockDBSourceConnector.TOPIC_CONFIG);
         port = config.getInt(TickTockDBSourceConnector.PORT_CONFIG);
+        httpPort = config.getInt(TickTockDBSourceConnector.HTTP_PORT_CONFIG);
         timeout = config.getInt(TickTockDBSourceConnector.TIMEOUT_CONFIG);  // ms
+        batchSize = config.getInt(TickTockDBSourceConnector.BATCH_SIZE_CONFIG);
+        maxWaitMs = config.getLong(TickTockDBSourceConnector.POLL_MAX_WAIT_MS_CONFIG);
+        lines = new TickTockDBRingBuffer<>(config.getInt(TickTockDBSourceConnector.QUEUE_SIZE_CONFIG));
+        parser = new TickTockDBPointParser(config.getInt(TickTockDBSourceConnector.KEY_CACHE_SIZE_CONFIG));
+        structs = TickTockDBSourceConnector.OUTPUT_FORMAT_STRUCT.equals(config.getString(TickTockDBSourceConnector.OUTPUT_FORMAT_CONFIG));
+        long windowMs = config.getLong(TickTockDBSourceConnector.AGGREGATE_WINDOW_MS_CONFIG);
+        flushed = new CountDownLatch(1);
+        if (windowMs > 0)
+            aggregator = new TickTockDBAggregator(windowMs,
+                config.getLong(TickTockDBSourceConnector.AGGREGATE_LATENESS_MS_CONFIG),
+                config.getString(TickTockDBSourceConnector.AGGREGATE_FUNCTION_CONFIG),
+                config.getInt(TickTockDBSourceConnector.AGGREGATE_MAX_SERIES_CONFIG));
+        if (structs || aggregator != null)
+            dictionary = new TickTockDBDictionary(config.getInt(TickTockDBSourceConnector.DICTIONARY_SIZE_CONFIG));
+
+        String index = props.get(TickTockDBSourceConnector.TASK_INDEX_CONFIG);
+        String count = props.get(TickTockDBSourceConnector.TASK_COUNT_CONFIG);
+        int i = (index == null) ? 0 : Integer.parseInt(index);
+        // a single task keeps the port to itself, so a stray second listener fails to bind
+        boolean reusePort = config.getBoolean(TickTockDBSourceConnector.REUSE_PORT_CONFIG) &&
+            count != null && Integer.parseInt(count) > 1 && TickTockDBServer.supportsReusePort();
+        port = listenPort(port, i, reusePort);
+        if (httpPort >= 0)
+            httpPort = listenPort(httpPort, i, reusePort);
 
         try {
-            socket = new ServerSocket(port);
-            socket.setSoTimeout(timeout);
-        } catch (Exception e) {
-            socket = null;
-            log.error("Error creating socket on port {}: {}", port, e);
+            server = new TickTockDBServer(port, httpPort, timeout, reusePort, lines);
+        } catch (IOException e) {
+            throw new ConnectException("Error listening on port " + port, e);
         }
+        server.start();     // start the network thread
 
-        listener = new Listener(socket);
-        listener.start();     // start the socket listening thread
+        metrics = new TickTockDBSourceMetrics(TickTockDBSourceMetrics.pluginMetrics(context), TickTockDBSourceMetrics.taskId(props));
+        metrics.task(lines, server, () -> dropped, () -> late, () -> overflowed);
     }
 
     @Override
     public List<SourceRecord> poll() throws InterruptedException {
-        ArrayList<SourceRecord> records = null;
-        Iterator<BufferedReader> rit = readers.iterator();
-        Iterator<DataOutputStream> wit = writers.iterator();
+        poller = Thread.currentThread();
+        Exception failure = server.failure();
+        if (failure != null)
+            throw new ConnectException("Network server on port " + port + " stopped", failure);
+        records = new ArrayList<>(Math.min(batchSize, lines.size() + 16));
+        long now = System.currentTimeMillis();
+        bytesIn = 0;
 
-        while (rit.hasNext() && wit.hasNext()) {
-            BufferedReader reader = rit.next();
-            DataOutputStream writer = wit.next();
+        int n = lines.drain(line -> {
+            bytesIn += line.length();
+            if (aggregator != null && aggregate(line, now))
+                return;
+            SourceRecord record = record(line, now);
+            if (record != null)
+                records.add(record);
+        }, batchSize, stopping ? 0 : maxWaitMs);
 
-            try {
-                if (! reader.ready())
-                    continue;
-                for (int i = 0; i < 10; i++) {  // TODO: config BATCH_SIZE
-                    String line = reader.readLine();
-                    if (line == null || line.isEmpty())
-                        continue;
-                    if (line.equals("version"))
-                    {
-                        writer.writeUTF("{\"repo\":\"github.com/ytyou/ticktock.git\",\"version\":\"1.0.0\",\"branch\":\"main\"}");
-                        continue;
-                    }
-                    log.info("ADDED A LINE!!!!!!!!!!!!!!: " + line);
-                    if (records == null)
-                        records = new ArrayList<>();
-                    records.add(new SourceRecord(Collections.emptyMap(), Collections.emptyMap(),
-                        topic, null, null, null, VALUE_SCHEMA, line, System.currentTimeMillis()));
-                }
-            } catch (SocketTimeoutException e) {
-                // OK, no data at the moment
-            } catch (Exception e) {
-                try {
-                    reader.close();
-                    writer.close();
-                } catch (Exception ignore) {
-                }
-                rit.remove();
-                wit.remove();
-                log.warn("Connection closed: {}", e);
+        if (n > 0)
+            server.drained();
+
+        if (aggregator != null) {
+            aggregator.flush(System.currentTimeMillis(), emitter);
+            open = aggregator.size();
+            if (stopping) {
+                // A partial window would later be overwritten, in TickTockDB,
+                // by whatever the next task makes of the same window.
+                if (open > 0)
+                    log.warn("Dropping {} aggregation windows still open at stop", open);
+                flushed.countDown();
             }
         }
-        return records;
+
+        List<SourceRecord> result = records;
+        records = null;
+        metrics.recordPoll(n, bytesIn, result.size());
+        return result.isEmpty() ? null : result;
     }
 
     @Override
     public void stop() {
         log.trace("Stopping");
-        if (listener != null)
-            listener.terminate();
+        stopping = true;
+        if (lines != null)
+            lines.wakeup();
+        if (server != null) {
+            server.terminate();
+            try {
+                server.join(timeout + 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (aggregator != null)
+            awaitFlush();
     }
 
-    private void addSocket(Socket so) {
+    /**
+     * Give the worker a last poll() to pick up the windows closed by now. The worker
+     * still sends what a poll() running during, or called after, stop()
+     * returns; but if stop() is called from the polling thread itself, no
+     * more polls will come, and the windows are lost.
+     */
+    private void awaitFlush() {
+        boolean done = false;
         try {
-            readers.add(new BufferedReader(new InputStreamReader(so.getInputStream())));
-            writers.add(new DataOutputStream(so.getOutputStream()));
-            log.info("ADDED A READER!!!!!!!!!!!!!!");
-        } catch (Exception e) {
-            log.error("Error creating input stream from socket: {}", e);
+            if (open > 0 && Thread.currentThread() != poller)
+                done = flushed.await(maxWaitMs + timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        if (! done && open > 0)
+            log.warn("Stopped with {} aggregation windows that were never polled", open);
     }
 
+    /**
+     * Key the record by its series, so that a series always goes to the same
+     * partition, and time it by its data point. A line that can't be parsed
+     * is passed on as it is, without a key, or dropped if publishing Structs.
+     */
+    private SourceRecord record(String line, long now) {
+        if (! parser.parse(line)) {
+            if (structs) {
+                log.debug("Dropping line that is not a data point: {}", line);
+                dropped++;
+                return null;
+            }
+            return new SourceRecord(Collections.emptyMap(), Collections.emptyMap(),
+                topic, null, null, null, VALUE_SCHEMA, line, now);
+        }
 
-    private class Listener extends Thread {
-        private ServerSocket socket;
-        private volatile boolean running = true;
+        long timestamp = (parser.timestamp() < 0) ? now : parser.timestamp();
 
-        public Listener(ServerSocket socket) {
-            this.socket = socket;
+        if (structs) {
+            Struct struct = parser.struct(dictionary, timestamp);
+            if (struct == null) {
+                log.debug("Dropping line without numeric fields: {}", line);
+                dropped++;
+                return null;
+            }
+            return new SourceRecord(Collections.emptyMap(), Collections.emptyMap(),
+                topic, null, KEY_SCHEMA, parser.key(), TickTockDBPointParser.STRUCT_SCHEMA, struct, timestamp);
         }
 
-        public void terminate() {
-            running = false;
+        return new SourceRecord(Collections.emptyMap(), Collections.emptyMap(),
+            topic, null, KEY_SCHEMA, parser.key(), VALUE_SCHEMA, line, timestamp);
+    }
+
+    /**
+     * Add the fields of a data point to their windows.
+     *
+     * @return false if the line is not a data point, and should be passed on as it is
+     */
+    private boolean aggregate(String line, long now) {
+        if (! parser.parse(line))
+            return false;
+        pointKey = parser.key();
+        pointTime = (parser.timestamp() < 0) ? now : parser.timestamp();
+        return parser.fields(dictionary, ! structs, visitor) > 0;
+    }
+
+    private void aggregate(String name, double value) {
+        field = name;
+        TickTockDBAggregator.Result result = aggregator.add(pointKey, name, seriesFactory, pointTime, value);
+        if (result == TickTockDBAggregator.Result.FULL) {
+            // Emit the windows that are closed already, to make room; an open
+            // window emitted now would later be overwritten by its remainder.
+            aggregator.flush(System.currentTimeMillis(), emitter);
+            result = aggregator.add(pointKey, name, seriesFactory, pointTime, value);
         }
+        if (result == TickTockDBAggregator.Result.LATE)
+            late++;
+        else if (result == TickTockDBAggregator.Result.FULL)
+            overflowed++;
+    }
 
-        private void sleep(int ms) {
-            if (! running)
-                return;
-            try {
-                Thread.sleep(ms);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    /**
+     * What a series needs to be written out, from the line just parsed.
+     */
+    private TickTockDBAggregator.Series series() {
+        Output output;
+        if (structs) {
+            output = new Output(parser.metric(dictionary), parser.tags(dictionary));
+        } else if (parser.isPut()) {
+            String metric = parser.metric(dictionary);
+            String tags = pointKey.substring(metric.length()).replace(',', ' ');
+            output = new Output("put " + metric + " ", tags);
+        } else {
+            output = new Output(pointKey + " " + field + "=", (String) null);
         }
+        return new TickTockDBAggregator.Series(pointKey, field, output);
+    }
 
-        public void run() {
-            while (running) {
-                try {
-                    Socket so = this.socket.accept();
-                    addSocket(so);
-                } catch (SocketTimeoutException e) {
-                    sleep(1000);
-                } catch (Exception e) {
-                    Thread.currentThread().interrupt();
-                    running = false;
-                    break;
-                }
-            }
-            try {
-                socket.close();
-            } catch (Exception e) {
-            }
+    private void emit(TickTockDBAggregator.Series series, long window, double value) {
+        Output output = (Output) series.info;
+        Object record;
+        Schema schema;
+
+        if (structs) {
+            record = new Struct(TickTockDBPointParser.STRUCT_SCHEMA)
+                .put("metric", output.head)
+                .put("tags", output.tags)
+                .put("timestamp", window)
+                .put("fields", Collections.singletonMap(series.field, value));
+            schema = TickTockDBPointParser.STRUCT_SCHEMA;
+        } else if (output.tail != null) {
+            record = output.head + window + " " + format(value) + output.tail;    // put
+            schema = VALUE_SCHEMA;
+        } else {
+            record = output.head + format(value) + " " + window;                   // line protocol
+            schema = VALUE_SCHEMA;
+        }
+
+        records.add(new SourceRecord(Collections.emptyMap(), Collections.emptyMap(),
+            topic, null, KEY_SCHEMA, series.key, schema, record, window));
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /**
+     * @return number of points dropped because their window had already been emitted
+     */
+    long late() {
+        return late;
+    }
+
+    /**
+     * @return number of points dropped because aggregate.max.series windows were open already
+     */
+    long overflowed() {
+        return overflowed;
+    }
+
+    private static class Output {
+        final String head;      // metric of a Struct, or start of a line
+        final String tail;      // tags of a put line
+        final Map<String, String> tags;
+
+        Output(String head, String tail) {
+            this.head = head;
+            this.tail = tail;
+            this.tags = null;
+        }
+
+        Output(String metric, Map<String, String> tags) {
+            this.head = metric;
+            this.tail = null;
+            this.tags = tags;
         }
     }
+
+    /**
+     * Tasks either share the configured port through SO_REUSEPORT, or each
+     * take the next port up.
+     */
+    static int listenPort(int port, int index, boolean reusePort) {
+        return (reusePort || port == 0) ? port : port + index;
+    }
+
+    /**
+     * @return the port actually listened on, e.g. when configured as 0
+     */
+    int port() {
+        return (server == null) ? port : server.port();
+    }
+
+    /**
+     * @return the HTTP port actually listened on, or -1 if none
+     */
+    int httpPort() {
+        return (server == null) ? httpPort : server.httpPort();
+    }
 }
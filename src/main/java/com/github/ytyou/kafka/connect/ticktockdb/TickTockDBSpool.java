@@ -0,0 +1,362 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * TickTockDBSpool keeps batches TickTockDB did not accept in an append-only
+ * log of memory-mapped segment files, and replays them in the background,
+ * oldest first, until TickTockDB takes them.
+ *
+ * Spooled batches still count as not acknowledged, so their offsets are not
+ * committed until the replay succeeds. That also means the spool does not
+ * need to survive a restart: whatever was in it gets redelivered by Kafka.
+ * Each spool therefore lives in its own directory, which is removed on
+ * close().
+ *
+ * Batches that keep their records keep them in the spool as well, in
+ * memory, so that a spooled batch TickTockDB rejects can still be split.
+ */
+class TickTockDBSpool {
+    private static final Logger log = LoggerFactory.getLogger(TickTockDBSpool.class);
+    private static final long MAX_BACKOFF_MS = 30000;
+    private static final int WARN_ATTEMPTS = 10;    // failed replays of a batch before it is worth a warning
+
+    private final String ticktockdb;
+    private final File dir;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long backoffMs;
+    private final Function<TickTockDBBatch, Boolean> replay;
+    private final Thread drainer;
+
+    // guarded by this
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final Map<TopicPartition, Integer> partitions = new HashMap<>();  // number of entries per partition
+    private long bytes = 0;     // total size of spooled batches
+    private int nextSegment = 0;
+    private volatile boolean running = true;
+
+    /**
+     * @param replay sends a batch to TickTockDB, returning true if it was accepted, or is to be dropped
+     */
+    TickTockDBSpool(String ticktockdb, File dir, int segmentBytes, long maxBytes, long backoffMs,
+                    Function<TickTockDBBatch, Boolean> replay) {
+        this.ticktockdb = ticktockdb;
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.backoffMs = backoffMs;
+        this.replay = replay;
+
+        if (! dir.mkdirs() && ! dir.isDirectory())
+            throw new ConnectException("Failed to create spool directory " + dir);
+
+        drainer = new Thread(this::drain, "ticktockdb-spool-" + ticktockdb);
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Append the batch, unless that would take the spool over its size limit.
+     *
+     * @return false if the spool is full
+     */
+    synchronized boolean append(TickTockDBBatch batch) {
+        if (bytes + batch.size() > maxBytes)
+            return false;
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.remaining() < batch.size()) {
+            segment = new Segment(new File(dir, String.format("%08d.log", nextSegment++)), Math.max(segmentBytes, batch.size()));
+            segments.add(segment);
+        }
+
+        int position = segment.append(batch);
+        entries.add(new Entry(segment, position, batch.size(), batch.count(), new HashMap<>(batch.offsets()),
+            batch.ends(), batch.records(), batch.lane(), System.currentTimeMillis()));
+        for (TopicPartition partition : batch.offsets().keySet())
+            partitions.merge(partition, 1, Integer::sum);
+        bytes += batch.size();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Wait until the spool has room for a batch of this size, or timeoutMs
+     * have passed.
+     *
+     * @return false if interrupted or closed while waiting
+     */
+    synchronized boolean await(int size, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long left;
+        while (running && ! entries.isEmpty() && bytes + size > maxBytes &&
+               (left = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * @return false if a batch of this size is too big for the spool even when it is empty
+     */
+    boolean fits(int size) {
+        return size <= maxBytes;
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return how long the oldest batch has been waiting, in ms, or 0 if there is none
+     */
+    synchronized long age(long now) {
+        Entry entry = entries.peek();
+        return (entry == null) ? 0 : now - entry.spooled;
+    }
+
+    /**
+     * @return true if some partition of the batch has batches in the spool
+     */
+    synchronized boolean holds(TickTockDBBatch batch) {
+        if (partitions.isEmpty())
+            return false;
+        for (TopicPartition partition : batch.offsets().keySet()) {
+            if (partitions.containsKey(partition))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wait until the spool has replayed the batches of every partition of this batch.
+     *
+     * @return false if the spool is closed
+     */
+    synchronized boolean awaitRelease(TickTockDBBatch batch, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long left;
+        while (running && holds(batch) && (left = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * @return the lowest spooled offset of the partition, or null if there is none
+     */
+    synchronized Long firstOffset(TopicPartition partition) {
+        Long lowest = null;
+        for (Entry entry : entries)
+            lowest = TickTockDBWriter.min(lowest, entry.offsets.get(partition));
+        return lowest;
+    }
+
+    void close() {
+        running = false;
+        drainer.interrupt();
+        try {
+            drainer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            for (Segment segment : segments)
+                segment.delete();
+            segments.clear();
+            entries.clear();
+            partitions.clear();
+            bytes = 0;
+            notifyAll();
+        }
+        dir.delete();
+    }
+
+    private void drain() {
+        long backoff = backoffMs;
+        int attempts = 0;   // failed replays of the oldest batch
+
+        while (running) {
+            Entry entry;
+            TickTockDBBatch batch;
+
+            synchronized (this) {
+                while (running && entries.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (! running)
+                    return;
+                entry = entries.peek();
+                batch = entry.read();
+            }
+
+            boolean ok;
+            RuntimeException error = null;
+            try {
+                ok = replay.apply(batch);
+            } catch (RuntimeException e) {
+                ok = false;
+                error = e;
+            }
+
+            if (! ok) {
+                if (++attempts % WARN_ATTEMPTS == 0)
+                    log.warn("Failed to replay {} records to {} {} times, spooled {} ms ago, retrying in {} ms",
+                        entry.count, ticktockdb, attempts, System.currentTimeMillis() - entry.spooled, backoff, error);
+                else
+                    log.debug("Failed to replay {} records to {}, retrying in {} ms", entry.count, ticktockdb, backoff, error);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+                continue;
+            }
+
+            backoff = backoffMs;
+            attempts = 0;
+            synchronized (this) {
+                if (entries.peek() != entry)
+                    continue;   // closed meanwhile
+                entries.poll();
+                for (TopicPartition partition : entry.offsets.keySet())
+                    partitions.computeIfPresent(partition, (p, n) -> (n == 1) ? null : n - 1);
+                bytes -= entry.length;
+                // delete segments no entry refers to any more
+                while (! segments.isEmpty() && (entries.isEmpty() || entries.peek().segment != segments.peek()))
+                    segments.poll().delete();
+                notifyAll();
+            }
+        }
+    }
+
+    private static class Entry {
+        final Segment segment;
+        final int position;
+        final int length;
+        final int count;
+        final Map<TopicPartition, Long> offsets;    // lowest offset per partition
+        final int[] ends;               // null if records are not kept
+        final SinkRecord[] records;     // null if records are not kept
+        final int lane;
+        final long spooled;     // ms
+
+        Entry(Segment segment, int position, int length, int count, Map<TopicPartition, Long> offsets,
+              int[] ends, SinkRecord[] records, int lane, long spooled) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.count = count;
+            this.offsets = offsets;
+            this.ends = ends;
+            this.records = records;
+            this.lane = lane;
+            this.spooled = spooled;
+        }
+
+        TickTockDBBatch read() {
+            // a copy of the records, since release() clears them
+            TickTockDBBatch batch = segment.read(position, length, count, ends, (records == null) ? null : records.clone());
+            for (Map.Entry<TopicPartition, Long> e : offsets.entrySet())
+                batch.track(e.getKey(), e.getValue());
+            batch.lane(lane);
+            return batch;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        Segment(File file, int size) {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new ConnectException("Failed to create spool segment " + file, e);
+            }
+        }
+
+        int remaining() {
+            return buffer.remaining();
+        }
+
+        int append(TickTockDBBatch batch) {
+            int position = buffer.position();
+            for (ByteBuffer chunk : batch.content())
+                buffer.put(chunk);
+            return position;
+        }
+
+        /**
+         * @return a batch of the spooled bytes, without copying them
+         */
+        TickTockDBBatch read(int position, int length, int count, int[] ends, SinkRecord[] records) {
+            ByteBuffer content = buffer.duplicate();
+            content.position(position).limit(position + length);
+            return new TickTockDBBatch(content, count, ends, records);
+        }
+
+        void delete() {
+            // The mapping goes away once the buffer is garbage collected.
+            if (! file.delete())
+                log.warn("Failed to delete spool segment {}", file);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * TickTockDBStructEncoder turns structured record values, a Connect Struct or
+ * a Map (e.g. schemaless JSON), into one line of line protocol:
+ *
+ *   { metric: "cpu", tags: { host: "a" }, fields: { usage: 1.5 }, timestamp: 1700000000 }
+ *
+ * becomes "cpu,host=a usage=1.5 1700000000". The names of the four fields
+ * are configurable. Tags and fields may themselves be a Struct or a Map.
+ *
+ * The escaped "metric,tag=value,..." prefix, with tags sorted, is cached in
+ * a bounded LRU keyed by a hash of the metric and tags, so that repeated
+ * series are neither sorted nor escaped again.
+ *
+ * An instance reuses its output buffer, so it is not thread safe.
+ */
+class TickTockDBStructEncoder {
+    private static final long TAG_SEED = 0x5851F42D4C957F2DL;
+
+    private final String metricField;
+    private final String tagsField;
+    private final String fieldsField;
+    private final String timestampField;
+    private final PrefixCache cache;
+
+    private byte[] buffer = new byte[1024];
+    private int length;
+
+    TickTockDBStructEncoder(AbstractConfig config) {
+        metricField = config.getString(TickTockDBSinkConnector.STRUCT_METRIC_FIELD_CONFIG);
+        tagsField = config.getString(TickTockDBSinkConnector.STRUCT_TAGS_FIELD_CONFIG);
+        fieldsField = config.getString(TickTockDBSinkConnector.STRUCT_FIELDS_FIELD_CONFIG);
+        timestampField = config.getString(TickTockDBSinkConnector.STRUCT_TIMESTAMP_FIELD_CONFIG);
+        cache = new PrefixCache(config.getInt(TickTockDBSinkConnector.STRUCT_PREFIX_CACHE_SIZE_CONFIG));
+    }
+
+    static boolean accepts(Object value) {
+        return value instanceof Struct || value instanceof Map;
+    }
+
+    /**
+     * Encode the value into the buffer returned by bytes().
+     *
+     * @return false if the value has no metric or no numeric field
+     */
+    boolean encode(Object value) {
+        Object metric = get(value, metricField);
+        if (metric == null || metric.toString().isEmpty())
+            return false;
+
+        length = 0;
+        Object tags = get(value, tagsField);
+        write(prefix(metric.toString(), tags));
+        put((byte) ' ');
+
+        int fields = 0;
+        Object values = get(value, fieldsField);
+        if (values instanceof Struct) {
+            Struct struct = (Struct) values;
+            for (Field field : struct.schema().fields())
+                if (field(field.name(), struct.get(field), fields))
+                    fields++;
+        } else if (values instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) values).entrySet())
+                if (entry.getKey() != null && field(entry.getKey().toString(), entry.getValue(), fields))
+                    fields++;
+        }
+        if (fields == 0)
+            return false;
+
+        Object timestamp = get(value, timestampField);
+        if (timestamp instanceof Date) {
+            put((byte) ' ');
+            number(((Date) timestamp).getTime());
+        } else if (timestamp instanceof Number) {
+            put((byte) ' ');
+            number(((Number) timestamp).longValue());
+        }
+
+        return true;
+    }
+
+    byte[] bytes() {
+        return buffer;
+    }
+
+    int offset() {
+        return 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return number of prefixes currently cached
+     */
+    int cached() {
+        return cache.size();
+    }
+
+    private byte[] prefix(String metric, Object tags) {
+        long key = TickTockDBLineProtocol.mix(metric.hashCode()) + tagsHash(tags);
+        Prefix prefix = cache.get(key);
+
+        if (prefix == null || ! prefix.metric.equals(metric) || ! sameTags(prefix.tags, tags)) {
+            Map<String, String> sorted = new TreeMap<>();
+            forEachTag(tags, sorted);
+            StringBuilder sb = new StringBuilder(metric.length() + 16 * sorted.size());
+            escape(sb, metric, false);
+            for (Map.Entry<String, String> tag : sorted.entrySet()) {
+                sb.append(',');
+                escape(sb, tag.getKey(), true);
+                sb.append('=');
+                escape(sb, tag.getValue(), true);
+            }
+            prefix = new Prefix(metric, new HashMap<>(sorted), sb.toString().getBytes(StandardCharsets.UTF_8));
+            cache.put(key, prefix);
+        }
+
+        return prefix.bytes;
+    }
+
+    /**
+     * Write ",key=value", or " key=value" for the first field.
+     */
+    private boolean field(String name, Object value, int index) {
+        if (! (value instanceof Number))
+            return false;   // TickTockDB only stores numbers
+        double d = ((Number) value).doubleValue();
+        if (Double.isNaN(d) || Double.isInfinite(d))
+            return false;
+
+        if (index > 0)
+            put((byte) ',');
+        key(name);
+        put((byte) '=');
+
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            number(((Number) value).longValue());
+        else if (d == Math.rint(d) && Math.abs(d) < 1e15)
+            number((long) d);
+        else
+            write(Double.toString(d).getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    private void key(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ',' || c == '=' || c == ' ' || c == '\n' || c == '\r' || c >= 0x80) {
+                // rare: a key that needs escaping, or is not ASCII
+                StringBuilder sb = new StringBuilder(name.length() + 4);
+                escape(sb, name, true);
+                write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        for (int i = 0; i < name.length(); i++)
+            put((byte) name.charAt(i));
+    }
+
+    private void number(long n) {
+        if (n == Long.MIN_VALUE) {
+            write(Long.toString(n).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (n < 0) {
+            put((byte) '-');
+            n = -n;
+        }
+        int digits = 1;
+        for (long m = n; m >= 10; m /= 10)
+            digits++;
+        ensureCapacity(length + digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + (n % 10));
+            n /= 10;
+        }
+        length += digits;
+    }
+
+    private void put(byte b) {
+        ensureCapacity(length + 1);
+        buffer[length++] = b;
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(length + bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+
+    private static Object get(Object value, String name) {
+        if (value instanceof Struct) {
+            Struct struct = (Struct) value;
+            return (struct.schema().field(name) == null) ? null : struct.get(name);
+        }
+        return ((Map<?, ?>) value).get(name);
+    }
+
+    /**
+     * Order independent hash of the tags, using the cached String hash codes.
+     */
+    private static long tagsHash(Object tags) {
+        long hash = 0;
+        if (tags instanceof Struct) {
+            Struct struct = (Struct) tags;
+            for (Field field : struct.schema().fields()) {
+                Object v = struct.get(field);
+                if (v != null)
+                    hash += TickTockDBLineProtocol.mix((((long) field.name().hashCode()) << 32) ^ (v.toString().hashCode() & 0xFFFFFFFFL) ^ TAG_SEED);
+            }
+        } else if (tags instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) tags).entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null)
+                    hash += TickTockDBLineProtocol.mix((((long) entry.getKey().toString().hashCode()) << 32) ^ (entry.getValue().toString().hashCode() & 0xFFFFFFFFL) ^ TAG_SEED);
+            }
+        }
+        return hash;
+    }
+
+    private static void forEachTag(Object tags, Map<String, String> out) {
+        if (tags instanceof Struct) {
+            Struct struct = (Struct) tags;
+            for (Field field : struct.schema().fields()) {
+                Object v = struct.get(field);
+                if (v != null)
+                    out.put(field.name(), v.toString());
+            }
+        } else if (tags instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) tags).entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null)
+                    out.put(entry.getKey().toString(), entry.getValue().toString());
+            }
+        }
+    }
+
+    private static boolean sameTags(Map<String, String> cached, Object tags) {
+        int count = 0;
+        if (tags instanceof Struct) {
+            Struct struct = (Struct) tags;
+            for (Field field : struct.schema().fields()) {
+                Object v = struct.get(field);
+                if (v == null)
+                    continue;
+                if (! v.toString().equals(cached.get(field.name())))
+                    return false;
+                count++;
+            }
+        } else if (tags instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) tags).entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null)
+                    continue;
+                if (! entry.getValue().toString().equals(cached.get(entry.getKey().toString())))
+                    return false;
+                count++;
+            }
+        }
+        return count == cached.size();
+    }
+
+    /**
+     * Escape a measurement (commas and spaces), or a tag or field key or tag
+     * value (commas, spaces and equal signs). Line breaks can't be escaped,
+     * so they are dropped.
+     */
+    private static void escape(StringBuilder sb, String s, boolean equals) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r')
+                continue;
+            if (c == ',' || c == ' ' || (equals && c == '='))
+                sb.append('\\');
+            sb.append(c);
+        }
+    }
+
+    private static class Prefix {
+        final String metric;
+        final Map<String, String> tags;
+        final byte[] bytes;
+
+        Prefix(String metric, Map<String, String> tags, byte[] bytes) {
+            this.metric = metric;
+            this.tags = tags;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class PrefixCache extends LinkedHashMap<Long, Prefix> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        PrefixCache(int capacity) {
+            super(16, 0.75f, true);     // access order, i.e. LRU
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Prefix> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.errors.ConnectException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TickTockDBTcpWriter streams batches to TickTockDB's line protocol TCP port,
+ * over a small pool of long lived connections.
+ *
+ * Each connection has its own thread, so batches handed to the same
+ * connection are written in order. A batch goes over the connection of its
+ * lane, so a partition, which always has the same lane, keeps its order. A batch's direct chunks are written with
+ * one gathering write, without being copied. Since the TCP protocol has no
+ * response, a batch counts as accepted once it is fully written.
+ *
+ * The protocol has no version request either, so a probe connects what is
+ * not connected, and checks that TickTockDB has not closed what is.
+ */
+class TickTockDBTcpWriter extends TickTockDBWriter {
+    private static final Logger log = LoggerFactory.getLogger(TickTockDBTcpWriter.class);
+
+    private final InetSocketAddress address;
+    private final Connection[] connections;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final int connectTimeoutMs;
+
+    /**
+     * @param connectTimeoutMs max time to wait for TickTockDB to accept a connection
+     */
+    TickTockDBTcpWriter(String ticktockdb, int connections, int maxAttempts, long backoffMs,
+                        long connectTimeoutMs, int maxInFlight, Listener listener) {
+        super(ticktockdb, maxInFlight, listener);
+        this.address = parse(ticktockdb);
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.connectTimeoutMs = (int) Math.min(connectTimeoutMs, Integer.MAX_VALUE);
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++)
+            this.connections[i] = new Connection(i);
+    }
+
+    @Override
+    protected CompletableFuture<?> write(TickTockDBBatch batch) {
+        Connection connection = connections[Math.floorMod(batch.lane(), connections.length)];
+        return CompletableFuture.runAsync(() -> connection.write(batch), connection.executor);
+    }
+
+    @Override
+    protected CompletableFuture<String> probe(int n, long timeoutMs) {
+        CompletableFuture<?>[] probes = new CompletableFuture<?>[Math.min(Math.max(n, 1), connections.length)];
+        for (int i = 0; i < probes.length; i++) {
+            Connection connection = connections[i];
+            probes[i] = CompletableFuture.runAsync(connection::probe, connection.executor);
+        }
+        return CompletableFuture.allOf(probes).thenApply(done -> "unknown");
+    }
+
+    @Override
+    protected void shutdown() {
+        for (Connection connection : connections)
+            connection.close();
+    }
+
+    private static InetSocketAddress parse(String ticktockdb) {
+        int colon = ticktockdb.lastIndexOf(':');
+        if (colon < 0)
+            throw new ConnectException("Expecting host:port, got " + ticktockdb);
+        return new InetSocketAddress(ticktockdb.substring(0, colon), Integer.parseInt(ticktockdb.substring(colon + 1)));
+    }
+
+    private class Connection {
+        private final ExecutorService executor;
+        private volatile SocketChannel channel;
+
+        Connection(int id) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "ticktockdb-tcp-" + ticktockdb + "-" + id);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Write the whole batch, reconnecting if necessary. A batch that was
+         * partially written before the connection broke is written again from
+         * the start, so TickTockDB may see some of its lines twice.
+         */
+        void write(TickTockDBBatch batch) {
+            IOException error = null;
+
+            for (int attempt = 0; attempt < maxAttempts; attempt++) {
+                if (attempt > 0 && ! backoff())
+                    break;
+                try {
+                    SocketChannel ch = channel;
+                    if (ch == null)
+                        ch = connect();
+                    transfer(ch, batch);
+                    return;
+                } catch (IOException e) {
+                    log.warn("Failed to write to {}, attempt {} of {}: {}", ticktockdb, attempt + 1, maxAttempts, e.toString());
+                    error = e;
+                    disconnect();
+                }
+            }
+
+            throw new CompletionException(new ConnectException("Failed to send to " + ticktockdb, error));
+        }
+
+        /**
+         * Connect, unless connected and TickTockDB has not closed the connection.
+         * Runs on the connection's thread, so it never overlaps a write.
+         */
+        void probe() {
+            try {
+                SocketChannel ch = channel;
+                if (ch != null && isClosedByPeer(ch)) {
+                    log.info("{} closed the connection", ticktockdb);
+                    disconnect();
+                    ch = null;
+                }
+                if (ch == null)
+                    connect();
+            } catch (IOException e) {
+                disconnect();
+                throw new CompletionException(new ConnectException("Failed to connect to " + ticktockdb, e));
+            }
+        }
+
+        private boolean isClosedByPeer(SocketChannel ch) throws IOException {
+            // TickTockDB never writes to us, so all there is to read is the end of the stream
+            ch.configureBlocking(false);
+            try {
+                return ch.read(ByteBuffer.allocate(1)) < 0;
+            } finally {
+                ch.configureBlocking(true);
+            }
+        }
+
+        private void transfer(SocketChannel ch, TickTockDBBatch batch) throws IOException {
+            ByteBuffer[] content = batch.content();
+            long remaining = batch.size();
+            while (remaining > 0)
+                remaining -= ch.write(content);
+        }
+
+        private SocketChannel connect() throws IOException {
+            SocketChannel ch = SocketChannel.open();
+            try {
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ch.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                // unlike ch.connect(), gives up on an endpoint that never answers
+                ch.socket().connect(address, connectTimeoutMs);
+            } catch (IOException e) {
+                ch.close();
+                throw e;
+            }
+            log.info("Connected to {}", ticktockdb);
+            channel = ch;
+            return ch;
+        }
+
+        private void disconnect() {
+            SocketChannel ch = channel;
+            channel = null;
+            if (ch == null)
+                return;
+            try {
+                ch.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        private boolean backoff() {
+            try {
+                Thread.sleep(backoffMs);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        void close() {
+            executor.shutdownNow();
+            disconnect();   // also wakes up a write in progress
+        }
+    }
+}
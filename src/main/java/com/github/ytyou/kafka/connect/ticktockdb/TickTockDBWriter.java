@@ -0,0 +1,251 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * TickTockDBWriter sends batches to TickTockDB asynchronously, keeping up to
+ * maxInFlight batches outstanding at a time. Subclasses implement the actual
+ * transport.
+ *
+ * Batches are acknowledged strictly in the order they were sent, even if they
+ * complete out of order, so the acknowledged offsets of a partition never skip
+ * over a batch that is still in flight. Two batches that share a partition are
+ * never in flight together, so TickTockDB writes a partition's batches in the
+ * order they were sent, whatever maxInFlight is; batches of other partitions
+ * go alongside.
+ *
+ * A batch TickTockDB accepted is released, so its chunks go back to the
+ * arena; one it did not accept is left alone, as the transport may still be
+ * reading from it after a timeout.
+ *
+ * All methods are expected to be called from the task thread.
+ */
+abstract class TickTockDBWriter {
+    protected final String ticktockdb;
+    private volatile int maxInFlight;
+    private final Listener listener;
+    private final ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+
+    /**
+     * @param ticktockdb host:port of the TickTockDB endpoint
+     * @param maxInFlight max number of batches waiting to complete
+     * @param listener told, in send order, about every batch that completed
+     */
+    TickTockDBWriter(String ticktockdb, int maxInFlight, Listener listener) {
+        this.ticktockdb = ticktockdb;
+        this.maxInFlight = maxInFlight;
+        this.listener = listener;
+    }
+
+    /**
+     * TickTockDB refused the content of a batch, rather than failed to take
+     * it; sending it again would not help.
+     */
+    static class Rejected extends ConnectException {
+        private static final long serialVersionUID = 1L;
+
+        Rejected(String message) {
+            super(message);
+        }
+    }
+
+    interface Listener {
+        /**
+         * TickTockDB accepted the batch.
+         */
+        void acked(TickTockDBBatch batch);
+
+        /**
+         * TickTockDB did not accept the batch.
+         *
+         * @return true if the batch has been taken care of, false to fail the task
+         */
+        boolean failed(TickTockDBBatch batch, ConnectException error);
+    }
+
+    /**
+     * Start writing the batch. The returned future completes once TickTockDB
+     * has accepted it, or exceptionally if it did not. Unlike the rest of the
+     * writer, this may be called from any thread.
+     */
+    protected abstract CompletableFuture<?> write(TickTockDBBatch batch);
+
+    /**
+     * Open up to the given number of connections, unless they are open
+     * already, and check that TickTockDB answers on them. Like write(),
+     * this may be called from any thread.
+     *
+     * @return completes with TickTockDB's version, as far as the transport
+     *         can tell, or exceptionally if TickTockDB did not answer
+     */
+    protected abstract CompletableFuture<String> probe(int connections, long timeoutMs);
+
+    /**
+     * Release the transport's resources.
+     */
+    protected abstract void shutdown();
+
+    /**
+     * Send the batch asynchronously. Blocks only if maxInFlight batches, or
+     * one of the same partitions, are already outstanding, until they
+     * complete. The batch must not be modified afterwards.
+     */
+    void send(TickTockDBBatch batch) {
+        poll(false);
+        while (inFlight.size() >= maxInFlight || overlaps(batch))
+            complete(inFlight.poll());
+
+        if (batch.isEmpty())
+            return;
+
+        batch.markSent(System.currentTimeMillis());
+        inFlight.add(new InFlight(batch, write(batch)));
+    }
+
+    /**
+     * @return true if send() would have to wait for an outstanding batch
+     */
+    boolean isFull() {
+        poll(false);
+        return inFlight.size() >= maxInFlight;
+    }
+
+    /**
+     * @return true if send() would not have to wait to send this batch
+     */
+    boolean canSend(TickTockDBBatch batch) {
+        return ! isFull() && ! overlaps(batch);
+    }
+
+    /**
+     * Wait for the oldest outstanding batch to complete, if there is one.
+     */
+    void await() {
+        if (! inFlight.isEmpty())
+            complete(inFlight.poll());
+    }
+
+    private boolean overlaps(TickTockDBBatch batch) {
+        for (InFlight f : inFlight) {
+            for (TopicPartition partition : batch.offsets().keySet()) {
+                if (f.batch.firstOffset(partition) != null)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Acknowledge batches that have completed.
+     *
+     * @param block if true, wait for all outstanding batches
+     */
+    void poll(boolean block) {
+        while (! inFlight.isEmpty() && (block || inFlight.peek().result.isDone()))
+            complete(inFlight.poll());
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Change the max number of batches waiting to complete. Batches already
+     * in flight are not affected.
+     */
+    void maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the lowest offset of the partition that is still outstanding, or null if there is none
+     */
+    Long firstUnacked(TopicPartition partition) {
+        // not necessarily the first batch: halves of a rejected batch are sent after newer ones
+        Long lowest = null;
+        for (InFlight f : inFlight)
+            lowest = min(lowest, f.batch.firstOffset(partition));
+        return lowest;
+    }
+
+    /**
+     * @return the lower of two offsets, either of which may be null
+     */
+    static Long min(Long a, Long b) {
+        if (a == null)
+            return b;
+        return (b == null || a <= b) ? a : b;
+    }
+
+    /**
+     * Give up on all outstanding batches, and release the transport.
+     * Offsets of the outstanding batches are never acknowledged.
+     */
+    void close() {
+        abandon();
+        shutdown();
+    }
+
+    private void abandon() {
+        for (InFlight f : inFlight)
+            f.result.cancel(true);
+        inFlight.clear();
+    }
+
+    private void complete(InFlight f) {
+        ConnectException error;
+
+        try {
+            f.result.get();
+            listener.acked(f.batch);
+            f.batch.release();
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConnectException)
+                error = (ConnectException) e.getCause();
+            else
+                error = new ConnectException("Failed to send to " + ticktockdb, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon();
+            throw new ConnectException("Interrupted while sending to " + ticktockdb, e);
+        }
+
+        if (! listener.failed(f.batch, error)) {
+            abandon();
+            throw error;
+        }
+    }
+
+    private static class InFlight {
+        final TickTockDBBatch batch;
+        final CompletableFuture<?> result;
+
+        InFlight(TickTockDBBatch batch, CompletableFuture<?> result) {
+            this.batch = batch;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.ytyou.kafka.connect.ticktockdb.TickTockDBAggregator.Result.ADDED;
+import static com.github.ytyou.kafka.connect.ticktockdb.TickTockDBAggregator.Result.FULL;
+import static com.github.ytyou.kafka.connect.ticktockdb.TickTockDBAggregator.Result.LATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickTockDBAggregatorTest {
+
+    private final List<String> emitted = new ArrayList<>();
+    private final TickTockDBAggregator.Emitter emitter =
+        (series, window, value) -> emitted.add(series.key + " " + series.field + " " + window + " " + value);
+
+    private static TickTockDBAggregator.Result add(TickTockDBAggregator aggregator, String key, long timestamp, double value) {
+        return aggregator.add(key, "value", () -> new TickTockDBAggregator.Series(key, "value", null), timestamp, value);
+    }
+
+    @Test
+    public void testFunctions() {
+        List<String> functions = Arrays.asList("avg", "sum", "min", "max", "last", "count");
+        double[] expected = { 4, 12, 1, 7, 7, 3 };
+        for (String function : functions) {
+            TickTockDBAggregator aggregator = new TickTockDBAggregator(1000, 0, function, 100);
+            assertEquals(ADDED, add(aggregator, "cpu", 1000, 4));
+            assertEquals(ADDED, add(aggregator, "cpu", 1500, 1));
+            assertEquals(ADDED, add(aggregator, "cpu", 1999, 7));
+            emitted.clear();
+            aggregator.flush(Long.MAX_VALUE, emitter);
+            assertEquals(0, aggregator.size());
+            assertEquals(1, emitted.size());
+            assertEquals(expected[functions.indexOf(function)], Double.parseDouble(emitted.get(0).split(" ")[3]), function);
+        }
+    }
+
+    @Test
+    public void testWatermark() {
+        TickTockDBAggregator aggregator = new TickTockDBAggregator(1000, 500, "sum", 100);
+        assertEquals(ADDED, add(aggregator, "a", 1100, 1));
+        assertEquals(ADDED, add(aggregator, "b", 1200, 2));
+        assertEquals(ADDED, add(aggregator, "a", 2400, 3));
+
+        // newest is 2400, so the watermark is 1900: nothing has closed yet
+        aggregator.flush(0, emitter);
+        assertTrue(emitted.isEmpty());
+        assertEquals(ADDED, add(aggregator, "a", 1900, 4));
+
+        assertEquals(ADDED, add(aggregator, "a", 2600, 5));
+        aggregator.flush(0, emitter);
+        Collections.sort(emitted);
+        assertEquals(Arrays.asList("a value 1000 5.0", "b value 1000 2.0"), emitted);
+        assertEquals(1, aggregator.size());
+
+        // the window of 1000 is closed
+        assertEquals(LATE, add(aggregator, "a", 1999, 6));
+
+        // the wall clock closes windows even when no more data comes
+        emitted.clear();
+        aggregator.flush(4500, emitter);
+        assertEquals(Collections.singletonList("a value 2000 8.0"), emitted);
+    }
+
+    @Test
+    public void testSeriesReused() {
+        TickTockDBAggregator aggregator = new TickTockDBAggregator(1000, 0, "sum", 100);
+        int[] created = { 0 };
+        TickTockDBAggregator.SeriesFactory factory = () -> {
+            created[0]++;
+            return new TickTockDBAggregator.Series("a", "value", null);
+        };
+        for (long t = 0; t < 10000; t += 1000)
+            assertEquals(ADDED, aggregator.add("a", "value", factory, t, 1));
+        aggregator.flush(Long.MAX_VALUE, emitter);
+        assertEquals(10, emitted.size());
+        assertEquals(1, created[0]);
+    }
+
+    @Test
+    public void testManySeries() {
+        TickTockDBAggregator aggregator = new TickTockDBAggregator(1000, 0, "count", 5000);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(ADDED, add(aggregator, "s" + i, 10, 1));
+            assertEquals(ADDED, add(aggregator, "s" + i, 20, 1));
+        }
+        assertEquals(FULL, add(aggregator, "s5000", 10, 1));
+        assertEquals(5000, aggregator.size());
+
+        aggregator.flush(Long.MAX_VALUE, emitter);
+        assertEquals(5000, emitted.size());
+        assertTrue(emitted.contains("s4999 value 0 2.0"));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TickTockDBDedupTest {
+
+    private final TickTockDBDedup dedup = new TickTockDBDedup();
+
+    private void add(String line, long pointHash) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        dedup.add(bytes, 0, bytes.length, 0, null, null, 0, pointHash);
+    }
+
+    private List<String> drain(int dropped) {
+        List<String> lines = new ArrayList<>();
+        assertEquals(dropped, dedup.drain((target, bytes, offset, length, record, partition, kafkaOffset) ->
+            lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8))));
+        return lines;
+    }
+
+    @Test
+    public void testCollisionKeepsBothLines() {
+        // the same hash for different data points
+        add("cpu,host=a usage=1 100", 42);
+        add("mem,host=b free=2 200", 42);
+        add("cpu,host=a usage=3 100", 42);
+        assertEquals(Arrays.asList("mem,host=b free=2 200", "cpu,host=a usage=3 100"), drain(1));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * TickTockDBFake stands in for TickTockDB: it accepts line protocol over
+ * HTTP, POST /api/write, and over TCP, on loopback ports, and counts the
+ * data points, i.e. lines, it receives.
+ *
+ * Faults can be injected, and changed while it runs:
+ *
+ *   latency   - every HTTP request is answered, and every TCP read
+ *               followed, this much later
+ *   errorRate - fraction of HTTP requests answered with a 500, whose
+ *               points are not counted; TCP has no way to report errors
+ *   maxRate   - max data points per second; requests and reads are
+ *               delayed to keep below it, like a TickTockDB that cannot
+ *               keep up
+ */
+class TickTockDBFake implements AutoCloseable {
+    private final HttpServer http;
+    private final ServerSocket tcp;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ticktockdb-fake");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile long latencyMs = 0;
+    private volatile double errorRate = 0;
+    private volatile long maxRate = 0;              // points/s, 0 for no limit
+    private final Object throttle = new Object();
+    private long throttleStart = System.nanoTime();
+    private long throttlePoints = 0;
+
+    TickTockDBFake() throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        http.createContext("/api/write", this::write);
+        http.setExecutor(executor);
+        http.start();
+
+        tcp = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    TickTockDBFake latency(long ms) {
+        latencyMs = ms;
+        return this;
+    }
+
+    TickTockDBFake errorRate(double rate) {
+        errorRate = rate;
+        return this;
+    }
+
+    TickTockDBFake maxRate(long pointsPerSecond) {
+        synchronized (throttle) {
+            maxRate = pointsPerSecond;
+            throttleStart = System.nanoTime();
+            throttlePoints = 0;
+        }
+        return this;
+    }
+
+    /**
+     * @return "127.0.0.1:port" of the given transport, for the sink's ticktockdb config
+     */
+    String address(String transport) {
+        int port = TickTockDBSinkConnector.TRANSPORT_TCP.equals(transport) ? tcp.getLocalPort() : http.getAddress().getPort();
+        return "127.0.0.1:" + port;
+    }
+
+    /**
+     * @return number of data points accepted
+     */
+    long points() {
+        return points.get();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of HTTP requests failed on purpose
+     */
+    long errors() {
+        return errors.get();
+    }
+
+    private void write(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equals(encoding))
+            body = new GZIPInputStream(body);
+        else if ("deflate".equals(encoding))
+            body = new InflaterInputStream(body);
+
+        long n;
+        try (InputStream in = body) {
+            n = countLines(in);
+        }
+        delay(n);
+
+        if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            exchange.sendResponseHeaders(500, -1);
+        } else {
+            points.addAndGet(n);
+            exchange.sendResponseHeaders(200, -1);
+        }
+        exchange.close();
+    }
+
+    private void accept() {
+        while (! tcp.isClosed()) {
+            try {
+                Socket socket = tcp.accept();
+                executor.execute(() -> read(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        byte[] buffer = new byte[64 * 1024];
+        try (Socket s = socket; InputStream in = s.getInputStream()) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                long lines = 0;
+                for (int i = 0; i < n; i++)
+                    if (buffer[i] == '\n')
+                        lines++;
+                points.addAndGet(lines);
+                delay(lines);
+            }
+        } catch (IOException e) {
+            // the sink went away
+        }
+    }
+
+    private static long countLines(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long lines = 0;
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            for (int i = 0; i < n; i++)
+                if (buffer[i] == '\n')
+                    lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Wait out the latency, and as long as the points take at the max rate.
+     */
+    private void delay(long points) {
+        long ms = latencyMs;
+        long rate = maxRate;
+        if (rate > 0) {
+            synchronized (throttle) {
+                long now = System.nanoTime();
+                if (throttleStart + throttlePoints * 1000000000L / rate < now) {
+                    // no credit for the time it was idle
+                    throttleStart = now;
+                    throttlePoints = 0;
+                }
+                throttlePoints += points;
+                long due = throttleStart + throttlePoints * 1000000000L / rate;
+                ms = Math.max(ms, (due - now) / 1000000);
+            }
+        }
+        if (ms <= 0)
+            return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        try {
+            tcp.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickTockDBHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long v = 0; v < 100000; v++) {
+            int bucket = TickTockDBHistogram.bucket(v);
+            assertTrue(TickTockDBHistogram.lowest(bucket) <= v && v <= TickTockDBHistogram.highest(bucket), "value " + v);
+        }
+        assertEquals(Long.MAX_VALUE, TickTockDBHistogram.highest(TickTockDBHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        TickTockDBHistogram histogram = new TickTockDBHistogram(60000);
+        assertTrue(Double.isNaN(histogram.percentile(0.5)));
+
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i);
+        assertEquals(500, histogram.percentile(0.50), 500 * 0.125);
+        assertEquals(990, histogram.percentile(0.99), 990 * 0.125);
+        assertEquals(1, histogram.percentile(0), 0);
+    }
+
+    @Test
+    public void testOldValuesAreForgotten() throws InterruptedException {
+        TickTockDBHistogram histogram = new TickTockDBHistogram(20);
+        histogram.record(1000);
+        Thread.sleep(100);
+        assertTrue(Double.isNaN(histogram.percentile(0.5)));
+        histogram.record(10);
+        assertEquals(10, histogram.percentile(0.5), 0);
+    }
+}
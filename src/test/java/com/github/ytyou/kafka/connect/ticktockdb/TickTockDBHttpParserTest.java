@@ -0,0 +1,155 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickTockDBHttpParserTest {
+
+    private final List<String> lines = new ArrayList<>();
+    private final TickTockDBHttpParser parser = new TickTockDBHttpParser(lines::add);
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(String s) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(bytes(s));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Feed the request in pieces of the given size, and return the responses.
+     */
+    private String parse(byte[] request, int piece) {
+        StringBuilder responses = new StringBuilder();
+        for (int i = 0; i < request.length; i += piece) {
+            parser.parse(ByteBuffer.wrap(request, i, Math.min(piece, request.length - i)));
+            ByteBuffer out = parser.responses();
+            if (out != null)
+                responses.append(StandardCharsets.ISO_8859_1.decode(out));
+        }
+        return responses.toString();
+    }
+
+    @Test
+    public void testWriteKeepAlive() {
+        String body = "cpu,host=a usage=1 1\ncpu,host=b usage=2 2";
+        String request = "POST /api/write?db=x HTTP/1.1\r\nHost: h\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+
+        for (int piece : new int[] { 1, 7, 1000 }) {
+            lines.clear();
+            assertEquals("HTTP/1.1 204 No Content\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n", parse(bytes(request + request), piece));
+            assertEquals(Arrays.asList("cpu,host=a usage=1 1", "cpu,host=b usage=2 2", "cpu,host=a usage=1 1", "cpu,host=b usage=2 2"), lines);
+            assertFalse(parser.isClosed());
+        }
+    }
+
+    @Test
+    public void testChunkedGzip() throws Exception {
+        byte[] body = gzip("cpu,host=a usage=1 1\nmem,host=a free=3 1\n");
+        int half = body.length / 2;
+        byte[] request = concat(
+            bytes("POST /api/write HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Encoding: gzip\r\nConnection: close\r\n\r\n"),
+            bytes(Integer.toHexString(half) + ";ext=1\r\n"), Arrays.copyOfRange(body, 0, half), bytes("\r\n"),
+            bytes(Integer.toHexString(body.length - half) + "\r\n"), Arrays.copyOfRange(body, half, body.length), bytes("\r\n"),
+            bytes("0\r\n\r\n"));
+
+        assertEquals("HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\n", parse(request, 3));
+        assertEquals(Arrays.asList("cpu,host=a usage=1 1", "mem,host=a free=3 1"), lines);
+        assertTrue(parser.isClosed());
+    }
+
+    @Test
+    public void testPut() {
+        String body = "[{\"metric\":\"cpu\",\"timestamp\":1700000000,\"value\":1.5e3,\"tags\":{\"host\":\"a\",\"dc\":\"x\"}},"
+            + " {\"metric\":\"mem\",\"timestamp\":\"1700000001\",\"value\":7,\"tags\":{\"note\":\"x}y\\\"\"}},"
+            + " {\"metric\":\"bad metric\",\"timestamp\":1,\"value\":1},"
+            + " {\"metric\":\"disk\",\"value\":1}]";
+        String request = "POST /api/put HTTP/1.1\r\nContent-Length: " + bytes(body).length + "\r\n\r\n" + body;
+
+        String response = parse(bytes(request), 5);
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request\r\n"), response);
+        assertTrue(response.endsWith("{\"success\":2,\"failed\":2}"), response);
+        assertEquals(Arrays.asList("put cpu 1700000000 1.5e3 host=a dc=x", "put mem 1700000001 7 note=x}y\""), lines);
+
+        lines.clear();
+        body = "{\"metric\":\"cpu\",\"timestamp\":1,\"value\":2}";
+        request = "POST /api/put HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+        assertEquals("HTTP/1.1 204 No Content\r\n\r\n", parse(bytes(request), 1000));
+        assertEquals(Arrays.asList("put cpu 1 2"), lines);
+    }
+
+    @Test
+    public void testPutRejectsBadNumbers() {
+        String body = "[{\"metric\":\"a\",\"timestamp\":\"1700000000\",\"value\":\"-2.5\"},"
+            + " {\"metric\":\"b\",\"timestamp\":1,\"value\":\"NaN\"},"
+            + " {\"metric\":\"c\",\"timestamp\":1,\"value\":\"Infinity\"},"
+            + " {\"metric\":\"d\",\"timestamp\":1,\"value\":\"0x1p3\"},"
+            + " {\"metric\":\"e\",\"timestamp\":1,\"value\":\"1.5d\"},"
+            + " {\"metric\":\"f\",\"timestamp\":1,\"value\":1e999},"
+            + " {\"metric\":\"g\",\"timestamp\":\"1700000000.5\",\"value\":1},"
+            + " {\"metric\":\"h\",\"timestamp\":1.7e9,\"value\":1},"
+            + " {\"metric\":\"i\",\"timestamp\":\"Infinity\",\"value\":1},"
+            + " {\"metric\":\"j\",\"timestamp\":-1,\"value\":1}]";
+        String request = "POST /api/put HTTP/1.1\r\nContent-Length: " + bytes(body).length + "\r\n\r\n" + body;
+
+        String response = parse(bytes(request), 1000);
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request\r\n"), response);
+        assertTrue(response.endsWith("{\"success\":1,\"failed\":9}"), response);
+        assertEquals(Arrays.asList("put a 1700000000 -2.5"), lines);
+    }
+
+    @Test
+    public void testErrors() {
+        assertTrue(parse(bytes("GET /api/write HTTP/1.1\r\n\r\n"), 100).startsWith("HTTP/1.1 405 "));
+        assertTrue(parser.isClosed());
+
+        TickTockDBHttpParser other = new TickTockDBHttpParser(lines::add);
+        other.parse(ByteBuffer.wrap(bytes("POST /api/query HTTP/1.1\r\n\r\n")));
+        assertTrue(StandardCharsets.ISO_8859_1.decode(other.responses()).toString().startsWith("HTTP/1.1 404 "));
+
+        other = new TickTockDBHttpParser(lines::add);
+        other.parse(ByteBuffer.wrap(bytes("POST /api/put HTTP/1.1\r\nContent-Length: 5\r\n\r\n[1,2]")));
+        assertTrue(StandardCharsets.ISO_8859_1.decode(other.responses()).toString().startsWith("HTTP/1.1 400 "));
+        assertTrue(other.isClosed());
+        assertTrue(lines.isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickTockDBLimiterTest {
+
+    @Test
+    public void testGrowsWhileFast() {
+        TickTockDBLimiter limiter = new TickTockDBLimiter(1, 8, 1000, 100000, 2.0);
+        assertEquals(1, limiter.inFlight());
+        assertEquals(1000, limiter.batchBytes());
+
+        long now = 0;
+        for (int i = 0; i < 1000; i++)
+            limiter.acked(10, limiter.batchBytes(), now += 10);
+        assertEquals(8, limiter.inFlight());
+        assertEquals(100000, limiter.batchBytes());
+    }
+
+    @Test
+    public void testSmallBatchesDoNotGrowTheBatchSize() {
+        TickTockDBLimiter limiter = new TickTockDBLimiter(1, 8, 1000, 100000, 2.0);
+        long now = 0;
+        for (int i = 0; i < 1000; i++)
+            limiter.acked(10, 100, now += 10);
+        assertEquals(8, limiter.inFlight());
+        assertEquals(1000, limiter.batchBytes());
+    }
+
+    @Test
+    public void testBacksOffWhenSlowOrFailing() {
+        TickTockDBLimiter limiter = new TickTockDBLimiter(2, 64, 1000, 1 << 20, 2.0);
+        long now = 0;
+        for (int i = 0; i < 10000; i++)
+            limiter.acked(10, limiter.batchBytes(), now += 10);
+        assertEquals(64, limiter.inFlight());
+
+        // halved once, not once for every batch that was already in flight
+        for (int i = 0; i < 10; i++)
+            limiter.acked(100, limiter.batchBytes(), now += 10);
+        assertEquals(32, limiter.inFlight());
+        assertEquals(1 << 19, limiter.batchBytes());
+
+        now += 2000;
+        limiter.failed(now);
+        assertEquals(16, limiter.inFlight());
+
+        for (int i = 0; i < 100; i++)
+            limiter.failed(now += 2000);
+        assertEquals(2, limiter.inFlight());
+        assertEquals(1000, limiter.batchBytes());
+    }
+
+    @Test
+    public void testBaselineFollowsLastingSlowdown() {
+        TickTockDBLimiter limiter = new TickTockDBLimiter(1, 8, 1000, 100000, 2.0);
+        long now = 0;
+        limiter.acked(10, 1000, now);
+
+        // 3x slower for good: throttled at first, then accepted as the new normal
+        for (int i = 0; i < 1000; i++)
+            limiter.acked(30, limiter.batchBytes(), now += 10);
+        assertTrue(limiter.inFlight() > 1);
+    }
+}
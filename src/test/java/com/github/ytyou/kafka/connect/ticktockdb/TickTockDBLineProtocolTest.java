@@ -0,0 +1,137 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickTockDBLineProtocolTest {
+
+    private final TickTockDBLineProtocol protocol = new TickTockDBLineProtocol();
+
+    private boolean valid(String line) {
+        assertTrue(protocol.wrap(line));
+        return protocol.scan(protocol.bytes(), protocol.offset(), protocol.offset() + protocol.length());
+    }
+
+    private long hash(String line) {
+        assertTrue(valid(line), line);
+        return protocol.seriesHash();
+    }
+
+    private long pointHash(String line) {
+        assertTrue(valid(line), line);
+        return protocol.pointHash();
+    }
+
+    @Test
+    public void testValidLines() {
+        assertTrue(valid("cpu usage=1"));
+        assertTrue(valid("cpu,host=a usage=1.5 1700000000"));
+        assertTrue(valid("cpu,host=a usage=-1.5e3,idle=7i,count=3u 1700000000000"));
+        assertTrue(valid("cpu,host=a\\ b,dc=x\\,y us\\ er=.5"));
+        assertTrue(valid("cpu,host=\"quoted\" usage=1"));
+        assertTrue(valid("m\u00e9t\u00e9o,ville=Z\u00fcrich temp=21.5"));
+    }
+
+    @Test
+    public void testInvalidLines() {
+        assertFalse(valid("cpu"));
+        assertFalse(valid("cpu,host=a"));
+        assertFalse(valid(",host=a usage=1"));
+        assertFalse(valid("cpu,host usage=1"));
+        assertFalse(valid("cpu,host= usage=1"));
+        assertFalse(valid("cpu usage=\"busy\""));
+        assertFalse(valid("cpu usage=true"));
+        assertFalse(valid("cpu usage=1.5i"));
+        assertFalse(valid("cpu usage=1 now"));
+        assertFalse(valid("cpu usage="));
+    }
+
+    @Test
+    public void testSeriesHashIgnoresTagOrderAndFields() {
+        long h = hash("cpu,host=a,dc=x usage=1 1");
+        assertEquals(h, hash("cpu,dc=x,host=a usage=2 2"));
+        assertEquals(h, hash("cpu,dc=x,host=a idle=3"));
+        assertNotEquals(h, hash("cpu,host=x,dc=a usage=1 1"));
+        assertNotEquals(h, hash("mem,host=a,dc=x usage=1 1"));
+    }
+
+    @Test
+    public void testPointHash() {
+        long h = pointHash("cpu,host=a,dc=x usage=1,idle=2 100");
+        assertEquals(h, pointHash("cpu,dc=x,host=a idle=3,usage=4 100"));
+        assertNotEquals(h, pointHash("cpu,host=a,dc=x usage=1 100"));
+        assertNotEquals(h, pointHash("cpu,host=a,dc=x usage=1,idle=2 101"));
+        assertNotEquals(h, pointHash("cpu,host=b,dc=x usage=1,idle=2 100"));
+        assertEquals(0, pointHash("cpu,host=a,dc=x usage=1,idle=2"));
+    }
+
+    private static boolean samePoint(String a, String b) {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        return TickTockDBLineProtocol.samePoint(x, 0, x.length, y, 0, y.length);
+    }
+
+    @Test
+    public void testSamePoint() {
+        String line = "cpu,host=a,dc=x usage=1,idle=2 100";
+        assertTrue(samePoint(line, "cpu,dc=x,host=a idle=3,usage=4 100"));
+        assertTrue(samePoint("cpu usage=1 100", "cpu  usage=2  100"));
+        assertTrue(samePoint("c\\,pu,h\\ ost=a\\,b usage=1 100", "c\\,pu,h\\ ost=a\\,b usage=2 100"));
+        assertFalse(samePoint(line, "cpu,host=a,dc=x usage=1 100"));
+        assertFalse(samePoint(line, "cpu,host=a,dc=x usage=1,idle=2 101"));
+        assertFalse(samePoint(line, "cpu,host=b,dc=x usage=1,idle=2 100"));
+        assertFalse(samePoint(line, "cpu,host=a usage=1,idle=2 100"));
+        assertFalse(samePoint(line, "mem,host=a,dc=x usage=1,idle=2 100"));
+        assertFalse(samePoint("cpu,host=a,host=a usage=1 100", "cpu,host=a,dc=x usage=1 100"));
+    }
+
+    @Test
+    public void testWrap() {
+        byte[] expected = "cpu,host=\u00e9 usage=1".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(protocol.wrap("cpu,host=\u00e9 usage=1"));
+        assertArrayEquals(expected, copy());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+        direct.put(expected).flip();
+        assertTrue(protocol.wrap(direct));
+        assertArrayEquals(expected, copy());
+
+        assertTrue(protocol.wrap(ByteBuffer.wrap(expected)));
+        assertArrayEquals(expected, copy());
+
+        assertFalse(protocol.wrap(42));
+        assertFalse(protocol.wrap(null));
+    }
+
+    private byte[] copy() {
+        byte[] bytes = new byte[protocol.length()];
+        System.arraycopy(protocol.bytes(), protocol.offset(), bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * TickTockDBLoadGenerator writes line protocol to a TickTockDBSourceTask,
+ * over several connections at once, as fast as the source takes it, in
+ * chunks of linesPerRequest lines: over TCP one line after the other, over
+ * HTTP as POST /api/write requests, on keep-alive connections.
+ *
+ * Every line is a distinct data point: each connection writes its own
+ * series, with increasing timestamps. Its sent field is the System.nanoTime()
+ * it was written at, see sent().
+ */
+class TickTockDBLoadGenerator {
+    private final int port;
+    private final boolean http;
+    private final int connections;
+    private final int linesPerRequest;
+
+    /**
+     * @param http true to send over HTTP, false for TCP
+     */
+    TickTockDBLoadGenerator(int port, boolean http, int connections, int linesPerRequest) {
+        this.port = port;
+        this.http = http;
+        this.connections = connections;
+        this.linesPerRequest = linesPerRequest;
+    }
+
+    /**
+     * Send data points on every connection for durationMs.
+     *
+     * @return total number of data points written
+     */
+    long run(long durationMs) throws Exception {
+        long end = System.nanoTime() + durationMs * 1000000;
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        HttpClient client = http ? HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build() : null;
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                int connection = c;
+                results.add(executor.submit(() -> http ? sendHttp(client, connection, end) : sendTcp(connection, end)));
+            }
+            long points = 0;
+            for (Future<Integer> result : results) {
+                try {
+                    points += result.get();
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+            return points;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static String line(int connection, int i) {
+        return "cpu,host=h" + connection + ",core=" + (i & 7) + " usage=" + (i % 100) + ",sent=" + System.nanoTime() + " " + (1700000000L + i) + "\n";
+    }
+
+    /**
+     * @return the System.nanoTime() the line was written at
+     */
+    static long sent(String line) {
+        int start = line.indexOf(",sent=") + 6;
+        return Long.parseLong(line.substring(start, line.indexOf(' ', start)));
+    }
+
+    /**
+     * @return number of data points written
+     */
+    private int sendTcp(int connection, long end) throws IOException {
+        int i = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024)) {
+            while (System.nanoTime() < end) {
+                for (int n = 0; n < linesPerRequest; n++, i++)
+                    out.write(line(connection, i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return number of data points written
+     */
+    private int sendHttp(HttpClient client, int connection, long end) throws IOException, InterruptedException {
+        URI uri = URI.create("http://127.0.0.1:" + port + "/api/write");
+        StringBuilder body = new StringBuilder(linesPerRequest * 64);
+        int i = 0;
+        while (System.nanoTime() < end) {
+            body.setLength(0);
+            for (int n = 0; n < linesPerRequest; n++, i++)
+                body.append(line(connection, i));
+            HttpResponse<Void> response = client.send(
+                HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(body.toString())).build(),
+                HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 204)
+                throw new IOException("Source answered " + response.statusCode());
+        }
+        return i;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.data.Struct;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickTockDBPointParserTest {
+
+    private final TickTockDBPointParser parser = new TickTockDBPointParser(100);
+
+    private String key(String line) {
+        assertTrue(parser.parse(line), line);
+        return parser.key();
+    }
+
+    @Test
+    public void testKeys() {
+        assertEquals("cpu,dc=x,host=a", key("put cpu 1700000000 1.5 host=a dc=x"));
+        assertEquals("cpu,dc=x,host=a", key("put  cpu 1700000000 1.5  dc=x  host=a"));
+        assertEquals("cpu,dc=x,host=a", key("cpu,host=a,dc=x usage=1.5,idle=98 1700000000"));
+        assertEquals("cpu,dc=x,host=a", key("cpu,dc=x,host=a usage=2"));
+        assertEquals("cpu,host=a,hostname=b", key("cpu,hostname=b,host=a usage=2"));
+        assertEquals("cpu", key("put cpu 1 2"));
+        assertEquals("cpu", key("cpu usage=2"));
+        assertEquals("c\\,pu,host=a\\ b", key("c\\,pu,host=a\\ b msg=\"x y\",usage=1 1"));
+    }
+
+    @Test
+    public void testTimestamps() {
+        assertTrue(parser.parse("put cpu 1700000000 1 host=a"));
+        assertEquals(1700000000000L, parser.timestamp());
+        assertTrue(parser.parse("put cpu 1700000000123 1 host=a"));
+        assertEquals(1700000000123L, parser.timestamp());
+        assertTrue(parser.parse("cpu,host=a usage=1 1700000000123456789"));
+        assertEquals(1700000000123L, parser.timestamp());
+        assertTrue(parser.parse("cpu,host=a usage=1"));
+        assertEquals(-1, parser.timestamp());
+    }
+
+    @Test
+    public void testInvalid() {
+        assertFalse(parser.parse("put cpu"));
+        assertFalse(parser.parse("put cpu now 1 host=a"));
+        assertFalse(parser.parse("put cpu 1 1 host"));
+        assertFalse(parser.parse("put cpu 1 1 host="));
+        assertFalse(parser.parse("cpu"));
+        assertFalse(parser.parse("cpu,host=a"));
+        assertFalse(parser.parse("cpu,host usage=1"));
+        assertFalse(parser.parse("cpu usage"));
+        assertFalse(parser.parse("cpu usage=1 later"));
+    }
+
+    @Test
+    public void testKeysAreCached() {
+        String key = key("put cpu 1 1 host=a dc=x");
+        assertSame(key, key("put cpu 2 7 host=a dc=x"));
+        assertEquals(1, parser.cached());
+        assertEquals(key, key("put cpu 2 7 dc=x host=a"));
+        assertEquals(2, parser.cached());
+        assertEquals("cpu,dc=y,host=a", key("put cpu 2 7 host=a dc=y"));
+    }
+
+    @Test
+    public void testStruct() {
+        TickTockDBDictionary dictionary = new TickTockDBDictionary(1024);
+
+        assertTrue(parser.parse("put cpu 1700000000 1.5 host=a"));
+        Struct put = parser.struct(dictionary, 0);
+        put.validate();
+        assertEquals("cpu", put.getString("metric"));
+        assertEquals(Collections.singletonMap("host", "a"), put.getMap("tags"));
+        assertEquals(1700000000000L, put.getInt64("timestamp"));
+        assertEquals(Collections.singletonMap("value", 1.5), put.getMap("fields"));
+
+        assertTrue(parser.parse("c\\ pu,host=a\\,b usage=2i,msg=\"a,b=c\",up=true,idle=97.5 1700000000"));
+        Struct lp = parser.struct(dictionary, 0);
+        assertEquals("c pu", lp.getString("metric"));
+        assertEquals(Collections.singletonMap("host", "a,b"), lp.getMap("tags"));
+        Map<String, Double> fields = new HashMap<>();
+        fields.put("usage", 2.0);
+        fields.put("idle", 97.5);
+        assertEquals(fields, lp.getMap("fields"));
+
+        assertTrue(parser.parse("cpu,host=a usage=3 1700000001"));
+        assertSame(put.getMap("tags").keySet().iterator().next(), parser.struct(dictionary, 0).getMap("tags").keySet().iterator().next());
+
+        assertTrue(parser.parse("cpu,host=a msg=\"text only\""));
+        assertNull(parser.struct(dictionary, 0));
+        assertTrue(parser.parse("cpu,host=a usage=1"));
+        assertEquals(42L, parser.struct(dictionary, 42).getInt64("timestamp"));
+    }
+}
@@ -59,6 +59,23 @@ public class TickTockDBSinkConnectorTest {
         }
     }
 
+    @Test
+    public void testBatchMustFitInSpool() {
+        sinkProperties.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, "/tmp/spool");
+        sinkProperties.put(TickTockDBSinkConnector.SPOOL_MAX_BYTES_CONFIG, "4096");
+        sinkProperties.put(TickTockDBSinkConnector.BATCH_MAX_BYTES_CONFIG, "8192");
+        for (ConfigValue val : connector.validate(sinkProperties).configValues()) {
+            if (val.name().equals(TickTockDBSinkConnector.BATCH_MAX_BYTES_CONFIG))
+                assertEquals(1, val.errorMessages().size());
+            else
+                assertEquals(0, val.errorMessages().size(), "Config property errors: " + val.errorMessages());
+        }
+
+        sinkProperties.put(TickTockDBSinkConnector.BATCH_MAX_BYTES_CONFIG, "4096");
+        for (ConfigValue val : connector.validate(sinkProperties).configValues())
+            assertEquals(0, val.errorMessages().size(), "Config property errors: " + val.errorMessages());
+    }
+
     @Test
     public void testSinkTasks() {
         connector.start(sinkProperties);
@@ -67,6 +84,8 @@ public class TickTockDBSinkConnectorTest {
 
         taskConfigs = connector.taskConfigs(2);
         assertEquals(2, taskConfigs.size());
+        assertEquals("0", taskConfigs.get(0).get(TickTockDBSinkConnector.TASK_INDEX_CONFIG));
+        assertEquals("1", taskConfigs.get(1).get(TickTockDBSinkConnector.TASK_INDEX_CONFIG));
     }
 
     @Test
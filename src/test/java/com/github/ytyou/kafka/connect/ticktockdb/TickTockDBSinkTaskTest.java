@@ -0,0 +1,920 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.internals.PluginMetricsImpl;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+public class TickTockDBSinkTaskTest {
+
+    private static final String TOPIC = "metrics";
+
+    private HttpServer server;
+    private List<String> bodies;
+    private List<String> encodings;
+    private AtomicInteger failures;
+    private AtomicInteger requests;
+    private AtomicInteger probes;
+    private Map<String, String> props;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        bodies = new CopyOnWriteArrayList<>();
+        encodings = new CopyOnWriteArrayList<>();
+        failures = new AtomicInteger();
+        requests = new AtomicInteger();
+        probes = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/write", exchange -> {
+            encodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Content-Encoding")));
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+                body = new GZIPInputStream(body);
+            try (InputStream in = body) {
+                String content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                if (failures.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                if (content.contains("poison")) {
+                    requests.incrementAndGet();
+                    exchange.sendResponseHeaders(400, -1);
+                    exchange.close();
+                    return;
+                }
+                bodies.add(content);
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/api/version", exchange -> {
+            probes.incrementAndGet();
+            byte[] version = "{\"version\":\"0.20\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, version.length);
+            exchange.getResponseBody().write(version);
+            exchange.close();
+        });
+        server.start();
+
+        props = new HashMap<>();
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    public void teardown() {
+        server.stop(0);
+    }
+
+    private static List<SinkRecord> records(int count) {
+        List<SinkRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String line = "cpu,host=h" + i + " usage=" + i + " " + (1700000000 + i);
+            records.add(new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, line, i));
+        }
+        return records;
+    }
+
+    @Test
+    public void testRecordsAreBatched() {
+        props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "4");
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        task.put(records(10));
+        task.flush(Collections.emptyMap());
+        task.stop();
+        assertEquals(3, bodies.size());
+        assertEquals(4, bodies.get(0).split("\n").length);
+        assertEquals("cpu,host=h9 usage=9 1700000009\n", bodies.get(2).substring(bodies.get(2).indexOf("cpu,host=h9")));
+    }
+
+    @Test
+    public void testOnlyAcknowledgedOffsetsAreCommitted() {
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG, "4");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(10));
+
+        task.put(records(10));
+        assertTrue(task.preCommit(current).getOrDefault(partition, new OffsetAndMetadata(0)).offset() <= 10);
+
+        task.flush(current);
+        assertEquals(10, task.preCommit(current).get(partition).offset());
+        task.stop();
+    }
+
+    @Test
+    public void testDuplicatesAreDropped() {
+        props.put(TickTockDBSinkConnector.BATCH_DEDUP_CONFIG, "true");
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        String[] lines = {
+            "cpu,host=a,dc=x usage=1 100",
+            "cpu,host=b usage=2 100",
+            "cpu,host=a idle=3 100",            // other field
+            "cpu,dc=x,host=a usage=4 100",      // replaces the first
+            "cpu,host=a,dc=x usage=5",          // no timestamp
+            "cpu,host=a,dc=x usage=6",
+            "cpu,host=b usage=7 101",
+        };
+        List<SinkRecord> records = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++)
+            records.add(new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, lines[i], i));
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(lines.length));
+
+        task.put(records);
+        task.flush(current);
+        assertEquals(lines.length, task.preCommit(current).get(partition).offset());
+        task.stop();
+
+        assertEquals(1, bodies.size());
+        assertEquals("cpu,host=b usage=2 100\ncpu,host=a idle=3 100\ncpu,dc=x,host=a usage=4 100\n" +
+            "cpu,host=a,dc=x usage=5\ncpu,host=a,dc=x usage=6\ncpu,host=b usage=7 101\n", bodies.get(0));
+    }
+
+    @Test
+    public void testRejectedRecordsAreIsolated() {
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        List<SinkRecord> reported = new ArrayList<>();
+        SinkTaskContext context = mock(SinkTaskContext.class);
+        when(context.errantRecordReporter()).thenReturn((record, error) -> {
+            reported.add(record);
+            return CompletableFuture.completedFuture(null);
+        });
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.initialize(context);
+        task.start(props);
+
+        List<SinkRecord> records = records(100);
+        for (int i : new int[] { 17, 60 })
+            records.set(i, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=poison usage=1 " + i, i));
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(100));
+
+        task.put(records);
+        task.flush(current);
+        assertEquals(100, task.preCommit(current).get(partition).offset());
+        task.stop();
+
+        assertEquals(2, reported.size());
+        assertTrue(reported.containsAll(Arrays.asList(records.get(17), records.get(60))));
+        List<String> written = new ArrayList<>();
+        for (String body : bodies)
+            written.addAll(Arrays.asList(body.split("\n")));
+        Collections.sort(written);
+        List<String> good = new ArrayList<>();
+        for (SinkRecord record : records)
+            if (! record.value().toString().contains("poison"))
+                good.add(record.value().toString());
+        Collections.sort(good);
+        assertEquals(good, written);
+        // two bad lines among 100 take a handful of extra requests, not one per line
+        assertTrue(requests.get() <= 2 * 8, "rejected requests: " + requests.get());
+    }
+
+    @Test
+    public void testSplitBatchHoldsBackCommit() throws Exception {
+        // answers concurrently, unlike the shared server
+        HttpServer concurrent = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        concurrent.setExecutor(Executors.newCachedThreadPool());
+        concurrent.createContext("/api/write", exchange -> {
+            String content = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                // the rejection comes once both batches are sent, well before the slow one is answered
+                Thread.sleep(content.contains("poison") ? 200 : content.contains("slow") ? 2000 : 0);
+            } catch (InterruptedException ignore) {
+            }
+            if (content.contains("poison")) {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(400, -1);
+            } else {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        concurrent.start();
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + concurrent.getAddress().getPort());
+        props.put(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG, "0");
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "5");
+        props.put(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG, "2");
+        SinkTaskContext context = mock(SinkTaskContext.class);
+        when(context.errantRecordReporter()).thenReturn((record, error) -> CompletableFuture.completedFuture(null));
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.initialize(context);
+        task.start(props);
+
+        // The first batch is rejected while the second, answered slowly, is
+        // still in flight, so its halves are sent after the second, once
+        // the third is put.
+        List<SinkRecord> records = records(15);
+        records.set(2, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=poison usage=1 2", 2));
+        records.set(7, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=slow usage=1 7", 7));
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(15));
+
+        task.put(records.subList(0, 10));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (requests.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Thread.sleep(500);
+        task.put(records.subList(10, 15));
+        assertEquals(0, task.preCommit(current).get(partition).offset());
+
+        task.flush(current);
+        assertEquals(15, task.preCommit(current).get(partition).offset());
+        task.stop();
+        concurrent.stop(0);
+    }
+
+    @Test
+    public void testRejectedBatchFailsTaskRatherThanSpool(@TempDir Path dir) {
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        List<SinkRecord> records = records(10);
+        records.set(3, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=poison usage=1 3", 3));
+        task.put(records);
+        assertThrows(ConnectException.class, () -> task.flush(Collections.emptyMap()));
+        task.stop();
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testRejectedBatchIsDroppedIfTolerated(@TempDir Path dir) {
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        props.put(TickTockDBEndpoint.ERRORS_TOLERANCE_CONFIG, TickTockDBEndpoint.TOLERANCE_ALL);
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(20));
+
+        List<SinkRecord> records = records(10);
+        records.set(3, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=poison usage=1 3", 3));
+        task.put(records);
+        task.flush(current);
+        task.put(records(20).subList(10, 20));
+        task.flush(current);
+        assertEquals(20, task.preCommit(current).get(partition).offset());
+        task.stop();
+
+        assertEquals(1, requests.get());
+        assertEquals(1, bodies.size());
+        assertEquals(10, bodies.get(0).split("\n").length);
+    }
+
+    @Test
+    public void testRejectedSpooledBatchIsSplit(@TempDir Path dir) throws Exception {
+        failures.set(1);
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        props.put(TickTockDBSinkConnector.SPOOL_RETRY_BACKOFF_MS_CONFIG, "10");
+        List<SinkRecord> reported = new CopyOnWriteArrayList<>();
+        SinkTaskContext context = mock(SinkTaskContext.class);
+        when(context.errantRecordReporter()).thenReturn((record, error) -> {
+            reported.add(record);
+            return CompletableFuture.completedFuture(null);
+        });
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.initialize(context);
+        task.start(props);
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(10));
+
+        // The batch fails once, goes to the spool, and is rejected on replay.
+        List<SinkRecord> records = records(10);
+        records.set(3, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=poison usage=1 3", 3));
+        task.put(records);
+        task.flush(current);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (task.preCommit(current).get(partition).offset() < 10 && System.currentTimeMillis() < deadline) {
+            assertTrue(reported.isEmpty() || reported.size() == 1);
+            task.flush(current);
+            Thread.sleep(10);
+        }
+
+        assertEquals(10, task.preCommit(current).get(partition).offset());
+        assertEquals(1, reported.size());
+        assertEquals(3, reported.get(0).kafkaOffset());
+        assertEquals(9, bodies.stream().mapToInt(body -> body.split("\n").length).sum());
+        task.stop();
+    }
+
+    @Test
+    public void testRejectedSpooledBatchFailsTask(@TempDir Path dir) {
+        failures.set(1);
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        props.put(TickTockDBSinkConnector.SPOOL_RETRY_BACKOFF_MS_CONFIG, "10");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(10));
+
+        List<SinkRecord> records = records(10);
+        records.set(3, new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, "cpu,host=poison usage=1 3", 3));
+        task.put(records);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(ConnectException.class, () -> {
+            while (true) {
+                task.flush(current);
+                Thread.sleep(10);
+            }
+        }));
+        // still not acknowledged, so it fails the task again rather than be committed
+        assertThrows(ConnectException.class, () -> task.preCommit(current));
+        task.stop();
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testLingerSendsPartialBatch() {
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "0");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        task.put(records(3));
+        task.flush(Collections.emptyMap());
+        task.stop();
+        assertEquals(1, bodies.size());
+        assertEquals(3, bodies.get(0).split("\n").length);
+    }
+
+    @Test
+    public void testBatchesSpanningBuffers() {
+        // batches of several arena chunks, some compressed and some not
+        props.put(TickTockDBSinkConnector.BATCH_MAX_BYTES_CONFIG, String.valueOf(3 * TickTockDBArena.CHUNK_SIZE + 100));
+        props.put(TickTockDBSinkConnector.COMPRESSION_TYPE_CONFIG, TickTockDBSinkConnector.COMPRESSION_GZIP);
+        props.put(TickTockDBSinkConnector.COMPRESSION_MIN_BYTES_CONFIG, String.valueOf(TickTockDBArena.CHUNK_SIZE));
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        List<SinkRecord> records = records(30000);
+        StringBuilder expected = new StringBuilder();
+        for (SinkRecord record : records)
+            expected.append(record.value()).append('\n');
+
+        for (int i = 0, n = 1000; i < records.size(); i += n, n = (n == 1000) ? 6000 : 1000) {
+            task.put(records.subList(i, Math.min(i + n, records.size())));
+            task.flush(Collections.emptyMap());
+        }
+        task.stop();
+
+        assertTrue(encodings.contains("gzip"));
+        assertTrue(encodings.contains("null"));
+        assertEquals(expected.toString(), String.join("", bodies));
+    }
+
+    @Test
+    public void testGzipCompression() {
+        props.put(TickTockDBSinkConnector.COMPRESSION_TYPE_CONFIG, TickTockDBSinkConnector.COMPRESSION_GZIP);
+        props.put(TickTockDBSinkConnector.COMPRESSION_MIN_BYTES_CONFIG, "100");
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        task.put(records(1));
+        task.flush(Collections.emptyMap());
+        task.put(records(20));
+        task.flush(Collections.emptyMap());
+        task.stop();
+
+        assertEquals(2, bodies.size());
+        assertEquals("null", encodings.get(0));
+        assertEquals("gzip", encodings.get(1));
+        assertEquals(20, bodies.get(1).split("\n").length);
+    }
+
+    @Test
+    public void testSeriesAreShardedAcrossEndpoints() throws Exception {
+        List<String> others = new CopyOnWriteArrayList<>();
+        HttpServer other = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        other.createContext("/api/write", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                others.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        other.start();
+
+        try {
+            props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG,
+                props.get(TickTockDBSinkConnector.TICKTOCKDB_CONFIG) + ",127.0.0.1:" + other.getAddress().getPort());
+            TickTockDBSinkTask task = new TickTockDBSinkTask();
+            task.start(props);
+
+            List<SinkRecord> records = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                String line = (i % 2 == 0)
+                    ? "cpu,host=h" + (i / 2) + ",dc=east usage=" + i + " 1700000000"
+                    : "cpu,dc=east,host=h" + (i / 2) + " usage=" + i + " 1700000001";
+                records.add(new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, line, i));
+            }
+            task.put(records);
+            task.flush(Collections.emptyMap());
+            task.stop();
+        } finally {
+            other.stop(0);
+        }
+
+        String first = String.join("", bodies);
+        String second = String.join("", others);
+        assertTrue(! first.isEmpty() && ! second.isEmpty());
+        assertEquals(100, first.split("\n").length + second.split("\n").length);
+
+        // both points of a series, whatever the order of their tags, go to the same endpoint
+        for (int h = 0; h < 50; h++) {
+            boolean a = first.contains("host=h" + h + ",dc=east ");
+            boolean b = first.contains("dc=east,host=h" + h + " ");
+            assertEquals(a, b);
+        }
+    }
+
+    @Test
+    public void testStructAndMapValues() {
+        Schema tagsSchema = SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.STRING_SCHEMA).build();
+        Schema fieldsSchema = SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.FLOAT64_SCHEMA).build();
+        Schema schema = SchemaBuilder.struct()
+            .field("name", Schema.STRING_SCHEMA)
+            .field("tags", tagsSchema)
+            .field("fields", fieldsSchema)
+            .field("timestamp", Schema.INT64_SCHEMA)
+            .build();
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", "a b");
+        tags.put("dc", "east");
+        Struct struct = new Struct(schema)
+            .put("name", "cpu")
+            .put("tags", tags)
+            .put("fields", Collections.singletonMap("usage", 1.5))
+            .put("timestamp", 1700000000L);
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", "mem");
+        map.put("tags", Collections.singletonMap("host", "a"));
+        map.put("fields", Collections.singletonMap("free", 42L));
+
+        props.put(TickTockDBSinkConnector.STRUCT_METRIC_FIELD_CONFIG, "name");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+        task.put(Arrays.asList(
+            new SinkRecord(TOPIC, 0, null, null, schema, struct, 0),
+            new SinkRecord(TOPIC, 0, null, null, null, map, 1),
+            new SinkRecord(TOPIC, 0, null, null, schema, struct, 2)));
+        task.flush(Collections.emptyMap());
+        task.stop();
+
+        assertEquals("cpu,dc=east,host=a\\ b usage=1.5 1700000000\n" +
+                     "mem,host=a free=42\n" +
+                     "cpu,dc=east,host=a\\ b usage=1.5 1700000000\n", String.join("", bodies));
+    }
+
+    @Test
+    public void testFailedBatchesAreSpooledAndReplayed(@TempDir Path dir) throws Exception {
+        failures.set(3);
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        props.put(TickTockDBSinkConnector.SPOOL_RETRY_BACKOFF_MS_CONFIG, "10");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        Map<TopicPartition, OffsetAndMetadata> current =
+            Collections.singletonMap(partition, new OffsetAndMetadata(10));
+
+        task.put(records(10));
+        task.flush(current);
+        assertEquals(0, task.preCommit(current).get(partition).offset());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bodies.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        deadline = System.currentTimeMillis() + 10000;
+        while (task.preCommit(current).get(partition).offset() < 10 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(10, task.preCommit(current).get(partition).offset());
+        assertEquals(1, bodies.size());
+        assertEquals(10, bodies.get(0).split("\n").length);
+        task.stop();
+    }
+
+    @Test
+    public void testBatchTooBigForSpoolFailsRatherThanBlocks(@TempDir Path dir) {
+        failures.set(1);
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        props.put(TickTockDBSinkConnector.SPOOL_MAX_BYTES_CONFIG, "1024");
+        props.put(TickTockDBSinkConnector.SPOOL_FULL_ACTION_CONFIG, TickTockDBSinkConnector.SPOOL_FULL_BLOCK);
+        props.put(TickTockDBSinkConnector.BATCH_MAX_BYTES_CONFIG, "1024");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        // one record takes the batch past batch.max.bytes
+        String line = "cpu,host=" + "h".repeat(2000) + " usage=1 1700000000";
+        task.put(Collections.singletonList(new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA, line, 0)));
+        assertThrows(ConnectException.class, () -> task.flush(Collections.emptyMap()));
+        task.stop();
+    }
+
+    @Test
+    public void testTcpTransport() throws Exception {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        try (ServerSocket listener = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            Thread reader = new Thread(() -> {
+                try (Socket so = listener.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(so.getInputStream(), StandardCharsets.UTF_8))) {
+                    for (String line = in.readLine(); line != null; line = in.readLine())
+                        lines.add(line);
+                } catch (Exception ignore) {
+                }
+            });
+            reader.start();
+
+            props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + listener.getLocalPort());
+            props.put(TickTockDBSinkConnector.TRANSPORT_CONFIG, TickTockDBSinkConnector.TRANSPORT_TCP);
+            props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "3");
+            TickTockDBSinkTask task = new TickTockDBSinkTask();
+            task.start(props);
+
+            task.put(records(10));
+            task.flush(Collections.emptyMap());
+            task.stop();
+            reader.join(10000);
+        }
+
+        assertEquals(10, lines.size());
+        assertEquals("cpu,host=h0 usage=0 1700000000", lines.get(0));
+        assertEquals(0, bodies.size());
+    }
+
+    @Test
+    public void testTcpKeepsEachPartitionOnOneConnection() throws Exception {
+        List<List<String>> connections = new CopyOnWriteArrayList<>();
+        List<Thread> readers = new CopyOnWriteArrayList<>();
+        try (ServerSocket listener = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2; i++) {
+                        Socket so = listener.accept();
+                        List<String> lines = new CopyOnWriteArrayList<>();
+                        connections.add(lines);
+                        Thread reader = new Thread(() -> {
+                            try (BufferedReader in = new BufferedReader(new InputStreamReader(so.getInputStream(), StandardCharsets.UTF_8))) {
+                                for (String line = in.readLine(); line != null; line = in.readLine())
+                                    lines.add(line);
+                            } catch (Exception ignore) {
+                            }
+                        });
+                        readers.add(reader);
+                        reader.start();
+                    }
+                } catch (Exception ignore) {
+                }
+            });
+            acceptor.start();
+
+            props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + listener.getLocalPort());
+            props.put(TickTockDBSinkConnector.TRANSPORT_CONFIG, TickTockDBSinkConnector.TRANSPORT_TCP);
+            props.put(TickTockDBSinkConnector.TCP_CONNECTIONS_CONFIG, "2");
+            props.put(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG, "2");
+            props.put(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG, "4");
+            props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "3");
+            TickTockDBSinkTask task = new TickTockDBSinkTask();
+            task.start(props);
+
+            List<SinkRecord> records = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                String line = "cpu,host=p" + (i % 4) + " usage=" + i + " " + (1700000000 + i);
+                records.add(new SinkRecord(TOPIC, i % 4, null, null, Schema.STRING_SCHEMA, line, i));
+            }
+            task.put(records);
+            task.flush(Collections.emptyMap());
+            task.stop();
+            acceptor.join(10000);
+            for (Thread reader : readers)
+                reader.join(10000);
+        }
+
+        // every partition on one connection, in order
+        Map<String, Integer> connectionOf = new HashMap<>();
+        int total = 0;
+        for (int c = 0; c < connections.size(); c++) {
+            Map<String, Integer> last = new HashMap<>();
+            for (String line : connections.get(c)) {
+                String host = line.substring(0, line.indexOf(' '));
+                int usage = Integer.parseInt(line.substring(line.indexOf('=', line.indexOf(' ')) + 1, line.lastIndexOf(' ')));
+                connectionOf.putIfAbsent(host, c);
+                assertEquals(c, (int) connectionOf.get(host), line);
+                assertTrue(usage > last.getOrDefault(host, -1), line);
+                last.put(host, usage);
+                total++;
+            }
+        }
+        assertEquals(40, total);
+    }
+
+    private static boolean called(Object mock, String method, Object argument) {
+        return mockingDetails(mock).getInvocations().stream().anyMatch(invocation ->
+            invocation.getMethod().getName().equals(method) && Arrays.asList(invocation.getArguments()).contains(argument));
+    }
+
+    @Test
+    public void testBackloggedEndpointPausesItsPartitionsRatherThanBlock() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer gated = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        gated.setExecutor(Executors.newCachedThreadPool());
+        gated.createContext("/api/write", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                received.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        gated.start();
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + gated.getAddress().getPort());
+        props.put(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG, "0");
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "5");
+        props.put(TickTockDBSinkConnector.MAX_QUEUED_BATCHES_CONFIG, "0");
+        SinkTaskContext context = mock(SinkTaskContext.class);
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.initialize(context);
+        task.start(props);
+
+        // The first batch is in flight, and the other two are queued behind it.
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> task.put(records(15)));
+        assertTrue(called(context, "pause", partition));
+        assertFalse(called(context, "resume", partition));
+
+        gate.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (! called(context, "resume", partition) && System.currentTimeMillis() < deadline) {
+            task.put(Collections.emptyList());
+            Thread.sleep(10);
+        }
+        assertTrue(called(context, "resume", partition));
+
+        task.flush(Collections.emptyMap());
+        task.stop();
+        gated.stop(0);
+        assertEquals(15, received.stream().mapToInt(body -> body.split("\n").length).sum());
+    }
+
+    @Test
+    public void testBatchesOfOnePartitionAreNeverInFlightTogether() throws Exception {
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer slow = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        slow.setExecutor(Executors.newCachedThreadPool());
+        slow.createContext("/api/write", exchange -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try (InputStream in = exchange.getRequestBody()) {
+                String content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                Thread.sleep(100);
+                received.add(content);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            concurrent.decrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        slow.start();
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + slow.getAddress().getPort());
+        props.put(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG, "0");
+        props.put(TickTockDBSinkConnector.BATCH_LINGER_MS_CONFIG, "600000");
+        props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "5");
+        props.put(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG, "4");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        // batches of partitions 0, 1, 0, 1
+        List<SinkRecord> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String line = "cpu,host=h" + i + " usage=" + i + " " + (1700000000 + i);
+            records.add(new SinkRecord(TOPIC, (i / 5) % 2, null, null, Schema.STRING_SCHEMA, line, i));
+        }
+        task.put(records);
+        task.flush(Collections.emptyMap());
+        task.stop();
+        slow.stop(0);
+
+        assertEquals(2, maxConcurrent.get());
+        assertEquals(4, received.size());
+        List<String> firsts = new ArrayList<>();
+        for (String body : received)
+            firsts.add(body.substring(0, body.indexOf(' ')));
+        assertTrue(firsts.indexOf("cpu,host=h0") < firsts.indexOf("cpu,host=h10"), firsts.toString());
+        assertTrue(firsts.indexOf("cpu,host=h5") < firsts.indexOf("cpu,host=h15"), firsts.toString());
+    }
+
+    @Test
+    public void testTcpConnectTimesOut() throws Exception {
+        // Once its accept queue is full, a listener that never accepts drops
+        // new connection attempts unanswered, like a blackholed address.
+        List<Socket> queued = new ArrayList<>();
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            for (boolean full = false; ! full && queued.size() < 16; ) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(listener.getLocalSocketAddress(), 200);
+                    queued.add(socket);
+                } catch (SocketTimeoutException e) {
+                    socket.close();
+                    full = true;
+                }
+            }
+
+            props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + listener.getLocalPort());
+            props.put(TickTockDBSinkConnector.TRANSPORT_CONFIG, TickTockDBSinkConnector.TRANSPORT_TCP);
+            props.put(TickTockDBSinkConnector.RECONNECT_ATTEMPTS_CONFIG, "1");
+            props.put(TickTockDBSinkConnector.REQUEST_TIMEOUT_MS_CONFIG, "500");
+            props.put(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG, "0");
+            TickTockDBSinkTask task = new TickTockDBSinkTask();
+            task.start(props);
+
+            task.put(records(1));
+            assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertThrows(ConnectException.class, () -> task.flush(Collections.emptyMap())));
+            task.stop();
+        } finally {
+            for (Socket socket : queued)
+                socket.close();
+        }
+    }
+
+    @Test
+    public void testStartWarmsUpAndProbes() throws Exception {
+        props.put(TickTockDBSinkConnector.WARMUP_CONNECTIONS_CONFIG, "2");
+        props.put(TickTockDBSinkConnector.PROBE_INTERVAL_MS_CONFIG, "20");
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+        assertTrue(probes.get() >= 2);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (probes.get() < 6 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        task.stop();
+        assertTrue(probes.get() >= 6);
+    }
+
+    @Test
+    public void testStartFailsIfTickTockDBDoesNotAnswer(@TempDir Path dir) throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, "127.0.0.1:" + port);
+        assertThrows(ConnectException.class, () -> new TickTockDBSinkTask().start(props));
+
+        // with a spool, records wait there for TickTockDB to come up
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+        task.put(records(10));
+        task.flush(Collections.emptyMap());
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        assertEquals(0, task.preCommit(Collections.singletonMap(partition, new OffsetAndMetadata(10))).get(partition).offset());
+        task.stop();
+    }
+
+    private static double total(Metrics metrics, String name, String task) {
+        return metrics.metrics().entrySet().stream()
+            .filter(e -> e.getKey().name().equals(name) && task.equals(e.getKey().tags().get("task")))
+            .mapToDouble(e -> (Double) e.getValue().metricValue())
+            .findFirst().orElse(Double.NaN);
+    }
+
+    @Test
+    public void testTasksOfOneWorkerKeepTheirOwnMetrics() throws Exception {
+        Metrics metrics = new Metrics();
+        TickTockDBSinkConnector connector = new TickTockDBSinkConnector();
+        props.put("name", "sink");
+        connector.start(props);
+        List<TickTockDBSinkTask> tasks = new ArrayList<>();
+        List<PluginMetricsImpl> closers = new ArrayList<>();
+        for (Map<String, String> config : connector.taskConfigs(2)) {
+            Map<String, String> tags = new LinkedHashMap<>();
+            tags.put("connector", "sink");
+            tags.put("task", config.get(TickTockDBSinkConnector.TASK_INDEX_CONFIG));
+            PluginMetricsImpl pluginMetrics = new PluginMetricsImpl(metrics, tags);
+            SinkTaskContext context = mock(SinkTaskContext.class);
+            when(context.pluginMetrics()).thenReturn(pluginMetrics);
+            TickTockDBSinkTask task = new TickTockDBSinkTask();
+            task.initialize(context);
+            task.start(config);
+            tasks.add(task);
+            closers.add(pluginMetrics);
+        }
+
+        tasks.get(0).put(records(3));
+        tasks.get(1).put(records(5));
+        assertEquals(3.0, total(metrics, "records-total", "0"));
+        assertEquals(5.0, total(metrics, "records-total", "1"));
+
+        // The worker closes the PluginMetrics of a stopped task, which removes
+        // its sensors but must leave those of the other task in place.
+        tasks.get(0).stop();
+        closers.get(0).close();
+        tasks.get(1).put(records(2));
+        assertEquals(7.0, total(metrics, "records-total", "1"));
+        tasks.get(1).stop();
+        metrics.close();
+    }
+}
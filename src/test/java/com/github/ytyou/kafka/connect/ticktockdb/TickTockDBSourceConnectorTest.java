@@ -0,0 +1,74 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.common.config.ConfigValue;
+import org.apache.kafka.connect.connector.ConnectorContext;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class TickTockDBSourceConnectorTest {
+
+    private TickTockDBSourceConnector connector;
+    private Map<String, String> sourceProperties;
+
+    @BeforeEach
+    public void setup() {
+        connector = new TickTockDBSourceConnector();
+        ConnectorContext ctx = mock(ConnectorContext.class);
+        connector.initialize(ctx);
+
+        sourceProperties = new HashMap<>();
+        sourceProperties.put(TickTockDBSourceConnector.TOPIC_CONFIG, "metrics");
+    }
+
+    @Test
+    public void testConnectorConfigValidation() {
+        List<ConfigValue> configValues = connector.config().validate(sourceProperties);
+        for (ConfigValue val : configValues) {
+            assertEquals(0, val.errorMessages().size(), "Config property errors: " + val.errorMessages());
+        }
+    }
+
+    @Test
+    public void testSourceTasks() {
+        connector.start(sourceProperties);
+        List<Map<String, String>> taskConfigs = connector.taskConfigs(3);
+        assertEquals(3, taskConfigs.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("metrics", taskConfigs.get(i).get(TickTockDBSourceConnector.TOPIC_CONFIG));
+            assertEquals(Integer.toString(i), taskConfigs.get(i).get(TickTockDBSourceConnector.TASK_INDEX_CONFIG));
+            assertEquals("3", taskConfigs.get(i).get(TickTockDBSourceConnector.TASK_COUNT_CONFIG));
+        }
+    }
+
+    @Test
+    public void testListenPort() {
+        assertEquals(6181, TickTockDBSourceTask.listenPort(6181, 2, true));
+        assertEquals(6183, TickTockDBSourceTask.listenPort(6181, 2, false));
+        assertEquals(0, TickTockDBSourceTask.listenPort(0, 2, false));
+    }
+}
@@ -0,0 +1,397 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.source.SourceRecord;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TickTockDBSourceTaskTest {
+
+    private static final String TOPIC = "metrics";
+
+    private TickTockDBSourceTask task;
+    private Map<String, String> props;
+
+    @BeforeEach
+    public void setup() {
+        props = new HashMap<>();
+        props.put(TickTockDBSourceConnector.TOPIC_CONFIG, TOPIC);
+        props.put(TickTockDBSourceConnector.PORT_CONFIG, "0");
+        task = new TickTockDBSourceTask();
+    }
+
+    @AfterEach
+    public void teardown() {
+        task.stop();
+    }
+
+    private List<Object> poll(int expected) throws Exception {
+        List<Object> values = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (values.size() < expected && System.currentTimeMillis() < deadline) {
+            List<SourceRecord> records = task.poll();
+            if (records == null) {
+                Thread.sleep(10);
+                continue;
+            }
+            assertTrue(records.size() <= Integer.parseInt(props.getOrDefault(TickTockDBSourceConnector.BATCH_SIZE_CONFIG, "10000")));
+            for (SourceRecord record : records) {
+                assertEquals(TOPIC, record.topic());
+                values.add(record.value());
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testLinesSplitAcrossReads() throws Exception {
+        task.start(props);
+
+        try (Socket a = new Socket("127.0.0.1", task.port());
+             Socket b = new Socket("127.0.0.1", task.port())) {
+            OutputStream out = a.getOutputStream();
+            out.write("cpu,host=a usage=1 1\ncpu,host=a us".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            b.getOutputStream().write("mem,host=b free=7 1\r\n\n".getBytes(StandardCharsets.UTF_8));
+            b.getOutputStream().flush();
+            Thread.sleep(100);
+            out.write("age=2 2\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            List<Object> values = poll(3);
+            assertEquals(3, values.size());
+            assertTrue(values.contains("cpu,host=a usage=1 1"));
+            assertTrue(values.contains("cpu,host=a usage=2 2"));
+            assertTrue(values.contains("mem,host=b free=7 1"));
+        }
+    }
+
+    @Test
+    public void testLastLineWithoutNewline() throws Exception {
+        task.start(props);
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            socket.getOutputStream().write("cpu,host=a usage=1 1\r\ncpu,host=a usage=2 2".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+        }
+
+        List<Object> values = poll(2);
+        assertEquals(Arrays.asList("cpu,host=a usage=1 1", "cpu,host=a usage=2 2"), values);
+    }
+
+    @Test
+    public void testKeysAndTimestamps() throws Exception {
+        task.start(props);
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            socket.getOutputStream().write("put cpu 1700000000 1 host=a dc=x\ncpu,dc=x,host=a usage=2 1700000001000\nnot a data point\n"
+                .getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            List<SourceRecord> records = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (records.size() < 3 && System.currentTimeMillis() < deadline) {
+                List<SourceRecord> polled = task.poll();
+                if (polled != null)
+                    records.addAll(polled);
+            }
+            assertEquals(3, records.size());
+            assertEquals("cpu,dc=x,host=a", records.get(0).key());
+            assertEquals(1700000000000L, records.get(0).timestamp());
+            assertEquals("cpu,dc=x,host=a", records.get(1).key());
+            assertEquals(1700000001000L, records.get(1).timestamp());
+            assertNull(records.get(2).key());
+        }
+    }
+
+    @Test
+    public void testLongLine() throws Exception {
+        task.start(props);
+
+        StringBuilder line = new StringBuilder("cpu");
+        for (int i = 0; i < 5000; i++)
+            line.append(",tag").append(i).append("=value").append(i);
+        line.append(" usage=1 1");
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            socket.getOutputStream().write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            assertEquals(line.toString(), poll(1).get(0));
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        props.put(TickTockDBSourceConnector.QUEUE_SIZE_CONFIG, "4");
+        props.put(TickTockDBSourceConnector.BATCH_SIZE_CONFIG, "3");
+        task.start(props);
+
+        List<String> expected = new ArrayList<>();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            expected.add("cpu,host=a usage=" + i + " " + i);
+            lines.append(expected.get(i)).append('\n');
+        }
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            socket.getOutputStream().write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            assertEquals(expected, poll(expected.size()));
+        }
+    }
+
+    @Test
+    public void testPollWaits() throws Exception {
+        props.put(TickTockDBSourceConnector.POLL_MAX_WAIT_MS_CONFIG, "200");
+        task.start(props);
+
+        long start = System.currentTimeMillis();
+        assertNull(task.poll());
+        assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+    @Test
+    public void testSingleTaskDoesNotSharePort() throws Exception {
+        assumeTrue(TickTockDBServer.supportsReusePort());
+        props.put(TickTockDBSourceConnector.TASK_INDEX_CONFIG, "0");
+        props.put(TickTockDBSourceConnector.TASK_COUNT_CONFIG, "1");
+        task.start(props);
+
+        props.put(TickTockDBSourceConnector.PORT_CONFIG, Integer.toString(task.port()));
+        TickTockDBSourceTask other = new TickTockDBSourceTask();
+        assertThrows(ConnectException.class, () -> other.start(props));
+    }
+
+    @Test
+    public void testTasksSharePort() throws Exception {
+        assumeTrue(TickTockDBServer.supportsReusePort());
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        props.put(TickTockDBSourceConnector.PORT_CONFIG, Integer.toString(port));
+        props.put(TickTockDBSourceConnector.TASK_INDEX_CONFIG, "0");
+        props.put(TickTockDBSourceConnector.TASK_COUNT_CONFIG, "2");
+        task.start(props);
+
+        TickTockDBSourceTask other = new TickTockDBSourceTask();
+        props.put(TickTockDBSourceConnector.TASK_INDEX_CONFIG, "1");
+        other.start(props);
+        try {
+            assertEquals(port, task.port());
+            assertEquals(port, other.port());
+
+            List<Socket> sockets = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket("127.0.0.1", port);
+                socket.getOutputStream().write(("cpu,conn=" + i + " usage=1 1\n").getBytes(StandardCharsets.UTF_8));
+                socket.getOutputStream().flush();
+                sockets.add(socket);
+            }
+
+            int total = 0;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (total < 20 && System.currentTimeMillis() < deadline) {
+                for (TickTockDBSourceTask t : Arrays.asList(task, other)) {
+                    List<SourceRecord> records = t.poll();
+                    if (records != null)
+                        total += records.size();
+                }
+            }
+            assertEquals(20, total);
+
+            for (Socket socket : sockets)
+                socket.close();
+        } finally {
+            other.stop();
+        }
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        props.put(TickTockDBSourceConnector.HTTP_PORT_CONFIG, "0");
+        task.start(props);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(body)) {
+            gz.write("cpu,host=a usage=1 1\ncpu,host=b usage=2 2\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + task.httpPort() + "/api/write"))
+            .header("Content-Encoding", "gzip")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())).build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(204, response.statusCode());
+
+        response = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + task.httpPort() + "/api/put"))
+            .POST(HttpRequest.BodyPublishers.ofString("{\"metric\":\"mem\",\"timestamp\":3,\"value\":4,\"tags\":{\"host\":\"c\"}}")).build(),
+            HttpResponse.BodyHandlers.discarding());
+        assertEquals(204, response.statusCode());
+
+        assertEquals(Arrays.asList("cpu,host=a usage=1 1", "cpu,host=b usage=2 2", "put mem 3 4 host=c"), poll(3));
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        props.put(TickTockDBSourceConnector.AGGREGATE_WINDOW_MS_CONFIG, "10000");
+        props.put(TickTockDBSourceConnector.AGGREGATE_LATENESS_MS_CONFIG, "0");
+        task.start(props);
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            // long gone by the wall clock, so their windows close at the end of the poll
+            socket.getOutputStream().write(("put cpu 1700000000 1 host=a\n" +
+                "put cpu 1700000005 3 host=a\n" +
+                "cpu,host=a usage=2i,idle=8,state=\"ok\" 1700000001000\n" +
+                "cpu,host=a usage=4 1700000012000\n" +
+                "not a data point\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(200);
+
+            List<Object> values = poll(5);
+            assertEquals(5, values.size());
+            assertTrue(values.contains("put cpu 1700000000000 2 host=a"), values.toString());
+            assertTrue(values.contains("cpu,host=a usage=2 1700000000000"), values.toString());
+            assertTrue(values.contains("cpu,host=a idle=8 1700000000000"), values.toString());
+            assertTrue(values.contains("cpu,host=a usage=4 1700000010000"), values.toString());
+            assertTrue(values.contains("not a data point"), values.toString());
+
+            // too late for its window
+            socket.getOutputStream().write("put cpu 1700000001 5 host=a\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(200);
+            assertNull(task.poll());
+            assertEquals(1, task.late());
+        }
+    }
+
+    @Test
+    public void testLatePointDoesNotCloseOpenWindows() throws Exception {
+        props.put(TickTockDBSourceConnector.AGGREGATE_WINDOW_MS_CONFIG, "3600000");
+        props.put(TickTockDBSourceConnector.AGGREGATE_LATENESS_MS_CONFIG, "0");
+        task.start(props);
+
+        long now = System.currentTimeMillis();
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            // the first two stay open; the last is an hour behind them
+            socket.getOutputStream().write(("cpu,host=a usage=1 " + now + "\n" +
+                "cpu,host=b usage=2 " + now + "\n" +
+                "cpu,host=a usage=3 " + (now - 7200000) + "\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(200);
+
+            assertNull(task.poll());
+            assertEquals(1, task.late());
+        }
+    }
+
+    @Test
+    public void testFullTableDropsPointsRatherThanEmitOpenWindows() throws Exception {
+        props.put(TickTockDBSourceConnector.AGGREGATE_WINDOW_MS_CONFIG, "1000");
+        props.put(TickTockDBSourceConnector.AGGREGATE_LATENESS_MS_CONFIG, "0");
+        props.put(TickTockDBSourceConnector.AGGREGATE_FUNCTION_CONFIG, "sum");
+        props.put(TickTockDBSourceConnector.AGGREGATE_MAX_SERIES_CONFIG, "2");
+        task.start(props);
+
+        long now = System.currentTimeMillis();
+        long window = now / 1000 * 1000;
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            // c finds no room while the windows of a and b are still open
+            socket.getOutputStream().write(("cpu,host=a usage=1 " + now + "\n" +
+                "cpu,host=b usage=2 " + now + "\n" +
+                "cpu,host=c usage=3 " + now + "\n" +
+                "cpu,host=a usage=5 " + now + "\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(200);
+
+            // the wall clock closes them a window later
+            List<Object> values = poll(2);
+            assertEquals(2, values.size());
+            assertTrue(values.contains("cpu,host=a usage=6 " + window), values.toString());
+            assertTrue(values.contains("cpu,host=b usage=2 " + window), values.toString());
+            assertNull(task.poll());
+            assertEquals(1, task.overflowed());
+            assertEquals(0, task.late());
+        }
+    }
+
+    @Test
+    public void testStopDropsOpenWindows() throws Exception {
+        props.put(TickTockDBSourceConnector.AGGREGATE_WINDOW_MS_CONFIG, "3600000");
+        task.start(props);
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            socket.getOutputStream().write(("cpu,host=a usage=1 " + System.currentTimeMillis() + "\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(200);
+            assertNull(task.poll());
+        }
+
+        // the worker's last poll() comes after stop() is called
+        Thread stopper = new Thread(task::stop);
+        stopper.start();
+        Thread.sleep(200);
+        // a partial window would be overwritten by the rest of it later
+        List<SourceRecord> records = task.poll();
+        stopper.join(5000);
+        assertFalse(stopper.isAlive());
+        assertNull(records);
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        task.start(props);
+
+        try (Socket socket = new Socket("127.0.0.1", task.port())) {
+            socket.getOutputStream().write("version\ncpu usage=1\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            String reply = new DataInputStream(socket.getInputStream()).readUTF();
+            assertTrue(reply.contains("\"version\""), reply);
+            assertEquals(1, poll(1).size());
+        }
+    }
+}
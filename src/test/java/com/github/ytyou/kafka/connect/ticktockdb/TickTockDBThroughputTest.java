@@ -0,0 +1,233 @@
+/*
+    TickTockDB Kafka Connector is open-source, and is maintained by
+    Yongtao You (yongtao.you@gmail.com) and Yi Lin (ylin30@gmail.com).
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.ytyou.kafka.connect.ticktockdb;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sustained throughput of both connectors, against TickTockDBFake and
+ * TickTockDBLoadGenerator. Fails when points/s drop below, or p99 latency
+ * rises above, the thresholds in throughput.properties.
+ */
+public class TickTockDBThroughputTest {
+    private static final Logger log = LoggerFactory.getLogger(TickTockDBThroughputTest.class);
+    private static final String TOPIC = "metrics";
+    private static final int PUT_RECORDS = 1000;
+
+    private static Properties thresholds;
+
+    private TickTockDBFake fake;
+    private Map<String, String> props;
+
+    @BeforeAll
+    public static void loadThresholds() throws Exception {
+        thresholds = new Properties();
+        try (InputStream in = TickTockDBThroughputTest.class.getResourceAsStream("/throughput.properties")) {
+            thresholds.load(in);
+        }
+    }
+
+    private static long threshold(String name) {
+        return Long.parseLong(System.getProperty(name, thresholds.getProperty(name)));
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        fake = new TickTockDBFake();
+        props = new HashMap<>();
+        props.put(TickTockDBSinkConnector.MAX_IN_FLIGHT_REQUESTS_CONFIG, "4");
+    }
+
+    @AfterEach
+    public void teardown() {
+        fake.close();
+    }
+
+    @Test
+    public void testSinkThroughputOverHttp() throws Exception {
+        sinkThroughput(TickTockDBSinkConnector.TRANSPORT_HTTP, "sink.http.points.per.second.min");
+    }
+
+    @Test
+    public void testSinkThroughputOverTcp() throws Exception {
+        sinkThroughput(TickTockDBSinkConnector.TRANSPORT_TCP, "sink.tcp.points.per.second.min");
+    }
+
+    @Test
+    public void testSinkDeliversEverythingDespiteFaults(@TempDir Path dir) throws Exception {
+        fake.latency(20).errorRate(0.2);
+        props.put(TickTockDBSinkConnector.SPOOL_DIR_CONFIG, dir.toString());
+        props.put(TickTockDBSinkConnector.SPOOL_RETRY_BACKOFF_MS_CONFIG, "10");
+        props.put(TickTockDBSinkConnector.BATCH_MAX_RECORDS_CONFIG, "500");
+
+        Run run = runSink(TickTockDBSinkConnector.TRANSPORT_HTTP, threshold("throughput.duration.ms") / 2);
+        assertEquals(run.points, fake.points());
+        assertTrue(fake.errors() > 0);
+    }
+
+    @Test
+    public void testSinkIsThrottledByTickTockDB() throws Exception {
+        fake.maxRate(20000);
+        Run run = runSink(TickTockDBSinkConnector.TRANSPORT_HTTP, threshold("throughput.duration.ms") / 2);
+        assertEquals(run.points, fake.points());
+        assertTrue(run.pointsPerSecond() < 20000 * 1.5, "points/s " + run.pointsPerSecond());
+    }
+
+    @Test
+    public void testSourceThroughputOverTcp() throws Exception {
+        sourceThroughput(false, "source.tcp.points.per.second.min", "source.tcp.p99.ms.max");
+    }
+
+    @Test
+    public void testSourceThroughputOverHttp() throws Exception {
+        sourceThroughput(true, "source.http.points.per.second.min", "source.http.p99.ms.max");
+    }
+
+    private void sinkThroughput(String transport, String threshold) throws Exception {
+        Run run = runSink(transport, threshold("throughput.duration.ms"));
+        assertEquals(run.points, fake.points());
+
+        log.info("Sink over {}: {} points/s, put and flush p99 {} ms", transport, run.pointsPerSecond(), run.p99());
+        assertTrue(run.pointsPerSecond() >= threshold(threshold),
+            "points/s " + run.pointsPerSecond() + " < " + threshold(threshold));
+        assertTrue(run.p99() <= threshold("sink.flush.p99.ms.max"),
+            "p99 " + run.p99() + " ms > " + threshold("sink.flush.p99.ms.max"));
+    }
+
+    /**
+     * put() and flush() records for durationMs, and wait until TickTockDB has them all.
+     */
+    private Run runSink(String transport, long durationMs) throws Exception {
+        props.put(TickTockDBSinkConnector.TICKTOCKDB_CONFIG, fake.address(transport));
+        props.put(TickTockDBSinkConnector.TRANSPORT_CONFIG, transport);
+        TickTockDBSinkTask task = new TickTockDBSinkTask();
+        task.start(props);
+
+        Run run = new Run();
+        long start = System.nanoTime();
+        long end = start + durationMs * 1000000;
+        try {
+            for (long offset = 0; System.nanoTime() < end; offset += PUT_RECORDS) {
+                List<SinkRecord> records = new ArrayList<>(PUT_RECORDS);
+                for (int i = 0; i < PUT_RECORDS; i++)
+                    records.add(new SinkRecord(TOPIC, 0, null, null, Schema.STRING_SCHEMA,
+                        "cpu,host=h" + (i % 100) + " usage=" + i + " " + (1700000000L + offset + i), offset + i));
+
+                long t = System.nanoTime();
+                task.put(records);
+                task.flush(Collections.emptyMap());
+                run.latencies.add((System.nanoTime() - t) / 1000000);
+                run.points += PUT_RECORDS;
+            }
+
+            // TCP has no acknowledgements, and spooled batches are still being replayed
+            long deadline = System.currentTimeMillis() + 30000;
+            while (fake.points() < run.points && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            run.elapsedNanos = System.nanoTime() - start;
+        } finally {
+            task.stop();
+        }
+        return run;
+    }
+
+    private void sourceThroughput(boolean http, String threshold, String p99) throws Exception {
+        Map<String, String> props = new HashMap<>();
+        props.put(TickTockDBSourceConnector.TOPIC_CONFIG, TOPIC);
+        props.put(TickTockDBSourceConnector.PORT_CONFIG, "0");
+        props.put(TickTockDBSourceConnector.HTTP_PORT_CONFIG, "0");
+        TickTockDBSourceTask task = new TickTockDBSourceTask();
+        task.start(props);
+
+        TickTockDBLoadGenerator generator = new TickTockDBLoadGenerator(http ? task.httpPort() : task.port(), http, 4, 1000);
+        long durationMs = threshold("throughput.duration.ms");
+
+        Run run = new Run();
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<Long> sent = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return generator.run(durationMs);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            long deadline = System.currentTimeMillis() + durationMs + 30000;
+            while ((! sent.isDone() || run.points < sent.join()) && System.currentTimeMillis() < deadline) {
+                List<SourceRecord> records = task.poll();
+                if (records == null)
+                    continue;
+                long now = System.nanoTime();
+                for (SourceRecord record : records) {
+                    if (run.points++ % 16 == 0)
+                        run.latencies.add((now - TickTockDBLoadGenerator.sent((String) record.value())) / 1000000);
+                }
+            }
+            run.elapsedNanos = System.nanoTime() - start;
+            assertEquals((long) sent.get(10, TimeUnit.SECONDS), run.points);
+        } finally {
+            task.stop();
+        }
+
+        log.info("Source over {}: {} points/s, p99 {} ms", http ? "HTTP" : "TCP", run.pointsPerSecond(), run.p99());
+        assertTrue(run.pointsPerSecond() >= threshold(threshold),
+            "points/s " + run.pointsPerSecond() + " < " + threshold(threshold));
+        assertTrue(run.p99() <= threshold(p99), "p99 " + run.p99() + " ms > " + threshold(p99));
+    }
+
+    private static class Run {
+        long points = 0;
+        long elapsedNanos;
+        final List<Long> latencies = new ArrayList<>();
+
+        long pointsPerSecond() {
+            return points * 1000000000L / Math.max(elapsedNanos, 1);
+        }
+
+        long p99() {
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return (sorted.length == 0) ? 0 : sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        }
+    }
+}